@@ -0,0 +1,178 @@
+package com.smikevon.lucene.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Random;
+
+import com.smikevon.lucene.LuceneConfig;
+import com.smikevon.lucene.index.DocParam;
+import com.smikevon.lucene.index.LuceneIndexException;
+import com.smikevon.lucene.index.SimpleIndex;
+import com.smikevon.lucene.search.SearchParam.LogicType;
+import com.smikevon.lucene.search.SearchParam.QueryType;
+import com.smikevon.lucene.search.SimpleQuery;
+
+/**
+ *
+ * 基准测试用的合成数据，固定随机种子，相同文档数总是生成相同的索引
+ *
+ * <p>属性：id、name(name+id)、category(cat0~cat49)、title(分词的8个英文词)、content(分词的中文，约12个词)、
+ * price(long)、score(double)、time(日期)</p>
+ *
+ */
+public class BenchmarkCorpus {
+    public static final long SEED = 20130501L;
+    public static final int CATEGORIES = 50;
+    private static final long BASE_TIME = 1356998400000L; // 2013-01-01
+    private static final String VERSION = "v2"; // 生成规则变化时修改，使已缓存的索引失效
+
+    static final String[] WORDS = { "lucene", "index", "search", "query", "segment", "merge", "commit", "reader",
+            "writer", "field", "term", "score", "sort", "filter", "phrase", "fuzzy", "prefix", "range", "analyzer",
+            "token", "stored", "document", "collector", "searcher", "directory", "cache", "refresh", "posting",
+            "offset", "payload", "boost", "norms", "codec", "facet", "group", "highlight", "spell", "suggest",
+            "shard", "replica", "cluster", "node", "schema", "schedule", "batch", "update", "delete", "append",
+            "optimize", "snapshot" };
+
+    static final String[] CHINESE_WORDS = { "搜索", "索引", "查询", "文档", "商品", "价格", "用户", "订单", "北京", "上海",
+            "广州", "深圳", "手机", "电脑", "服装", "图书", "音乐", "电影", "旅游", "酒店", "美食", "汽车", "房产", "教育",
+            "医疗", "金融", "银行", "保险", "股票", "基金", "天气", "新闻", "体育", "足球", "篮球", "游戏", "软件", "数据",
+            "服务器", "数据库", "网络", "安全", "系统", "平台", "开发", "测试", "发布", "更新", "优化", "性能", "我们", "他们",
+            "今天", "明天", "非常", "快速", "稳定", "免费", "推荐", "热门" };
+
+    private final Random random;
+
+    public BenchmarkCorpus() {
+        this(SEED);
+    }
+
+    public BenchmarkCorpus(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * @param id 文档编号
+     * @return 编号为id的文档，须按编号顺序调用才能保证可重现
+     */
+    public DocParam next(int id) {
+        DocParam doc = new DocParam();
+        fill(doc, id);
+        return doc;
+    }
+
+    /**
+     * 在doc上添加编号为id的文档的属性
+     */
+    public void fill(DocParam doc, int id) {
+        doc.add("id", String.valueOf(id));
+        doc.add("name", "name" + id);
+        doc.add("category", "cat" + random.nextInt(CATEGORIES));
+        doc.add("title", sentence(8), true);
+        doc.add("content", chineseSentence(12), true);
+        doc.add("price", (long) random.nextInt(100000));
+        doc.add("score", random.nextDouble() * 100);
+        doc.add("time", new Date(BASE_TIME + random.nextInt(365 * 24 * 3600) * 1000L));
+    }
+
+    public String sentence(int words) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0)
+                sb.append(' ');
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return 不带空格的中文句子，由SmartChineseAnalyzer分词
+     */
+    public String chineseSentence(int words) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            sb.append(CHINESE_WORDS[random.nextInt(CHINESE_WORDS.length)]);
+            if (i % 5 == 4)
+                sb.append('，');
+        }
+        return sb.append('。').toString();
+    }
+
+    /**
+     * 返回docs个文档的索引位置，索引缓存在java.io.tmpdir下，已存在且完整时直接复用，使各fork使用相同的索引
+     *
+     * @param docs 文档数
+     * @return 索引位置
+     */
+    public static String index(int docs) throws LuceneIndexException, IOException {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "commons-lucene4-bench/search-" + VERSION + "-"
+                + docs);
+        File done = new File(dir, "benchmark.done");
+        String indexPath = dir.getAbsolutePath();
+        if (!done.exists()) {
+            delete(dir);
+            dir.mkdirs();
+            build(indexPath, docs);
+            done.createNewFile();
+        }
+        LuceneConfig.setReaderReopen(3600); // 索引不再变化，避免测量期间定时maybeRefresh
+        return indexPath;
+    }
+
+    /**
+     * 向indexPath写入编号为0到docs-1的文档
+     */
+    static void build(String indexPath, int docs) throws LuceneIndexException {
+        BenchmarkCorpus corpus = new BenchmarkCorpus();
+        SimpleIndex si = new SimpleIndex(indexPath);
+        for (int i = 0; i < docs; i++) {
+            si.batchAdd(corpus.next(i));
+        }
+        si.closeBatch();
+    }
+
+    /**
+     * @return java.io.tmpdir下新建的空目录，用于写入类基准测试
+     */
+    static File tempDir(String prefix) {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "commons-lucene4-bench/" + prefix + "-"
+                + System.nanoTime());
+        dir.mkdirs();
+        return dir;
+    }
+
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * @return 只含一个type类型条件的查询，各类型命中的文档数在同一数量级
+     */
+    public static SimpleQuery query(String indexPath, QueryType type) {
+        SimpleQuery query = new SimpleQuery(indexPath);
+        switch (type) {
+            case ANALYZED:
+                return query.analyzed("title", WORDS[3] + " " + WORDS[7], LogicType.AND);
+            case FUZZY:
+                return query.fuzzy("name", "name1234", LogicType.AND);
+            case PREFIX:
+                return query.prefix("name", "name12", LogicType.AND);
+            case REGEXP:
+                return query.regexp("name", "name1[0-9]{2}", LogicType.AND);
+            case TEXT_RANGE:
+                return query.range("category", "cat10", "cat19", LogicType.AND, true, true);
+            case LONG_RANGE:
+                return query.rangeLong("price", 10000, 20000, LogicType.AND, true, false);
+            case DOUBLE_RANGE:
+                return query.rangeDouble("score", 10.0, 20.0, LogicType.AND, true, false);
+            case WILDCARD:
+            default:
+                return query.wildcard("name", "name12*", LogicType.AND);
+        }
+    }
+}
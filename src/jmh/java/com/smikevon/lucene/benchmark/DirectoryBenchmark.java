@@ -0,0 +1,114 @@
+package com.smikevon.lucene.benchmark;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.smikevon.lucene.IndexConfig.DirectoryType;
+import com.smikevon.lucene.LuceneConfig;
+import com.smikevon.lucene.index.LuceneIndexException;
+import com.smikevon.lucene.index.SimpleIndex;
+import com.smikevon.lucene.search.SearchParam.QueryType;
+import com.smikevon.lucene.search.SearchResult;
+import com.smikevon.lucene.search.SimpleQuery;
+
+/**
+ *
+ * 索引目录实现(IndexConfig.setDirectoryType、setNRTCaching)对查询及近实时写入的影响:
+ * <ul>
+ * <li>search: 各DirectoryType下执行查询并读取前10个文档的耗时</li>
+ * <li>nrtWriteRead: 近实时索引写入一个文档后立即查询到该文档(读己之写)的耗时，分别在使用和不使用NRTCachingDirectory时测量</li>
+ * </ul>
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class DirectoryBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class SearchState {
+        @Param({ "100000" })
+        public int docs;
+
+        @Param({ "MMAP", "NIOFS", "SIMPLEFS" })
+        public DirectoryType directory;
+
+        private SimpleQuery query;
+
+        @Setup
+        public void setup() throws Exception {
+            String indexPath = BenchmarkCorpus.index(docs);
+            LuceneConfig.getIndexConfig(indexPath).setDirectoryType(directory); // 每个fork第一次查询前设置
+            query = BenchmarkCorpus.query(indexPath, QueryType.ANALYZED);
+            query.get(0, 10); // 打开searcher
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class NearRealtimeState {
+        @Param({ "false", "true" })
+        public boolean nrtCaching;
+
+        private File dir;
+        private String indexPath;
+        private BenchmarkCorpus corpus;
+        private int nextId;
+
+        @Setup
+        public void setup() throws LuceneIndexException {
+            dir = BenchmarkCorpus.tempDir("directory");
+            indexPath = dir.getAbsolutePath();
+            corpus = new BenchmarkCorpus();
+            // 写入由group commit每秒提交一次，可见性只依赖近实时刷新
+            LuceneConfig.getIndexConfig(indexPath).setGroupCommit(1000, 100000).setNearRealtime(1000)
+                    .setNRTCaching(nrtCaching ? 5 : 0, 60);
+            SimpleIndex si = new SimpleIndex(indexPath);
+            for (nextId = 0; nextId < 10000; nextId++) {
+                corpus.fill(si, nextId);
+                si.batchAdd();
+            }
+            si.closeBatch();
+        }
+
+        @TearDown
+        public void tearDown() {
+            BenchmarkCorpus.delete(dir);
+        }
+    }
+
+    /**
+     * 执行分词查询并读取前10个文档
+     */
+    @Benchmark
+    public SearchResult search(SearchState state) {
+        return state.query.get(0, 10);
+    }
+
+    /**
+     * 写入一个文档，并等待近实时searcher看到该文档后查询
+     */
+    @Benchmark
+    public SearchResult nrtWriteRead(NearRealtimeState state) throws LuceneIndexException {
+        SimpleIndex si = new SimpleIndex(state.indexPath);
+        int id = state.nextId++;
+        state.corpus.fill(si, id);
+        si.addIndex();
+        return new SimpleQuery(state.indexPath).and("id", String.valueOf(id)).waitFor(si.getGeneration())
+                .get(0, 1);
+    }
+}
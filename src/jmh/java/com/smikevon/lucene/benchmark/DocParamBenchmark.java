@@ -0,0 +1,89 @@
+package com.smikevon.lucene.benchmark;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.document.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.smikevon.lucene.index.DocParam;
+
+/**
+ *
+ * 构造一个文档(8个属性)的耗时及分配量，不写入索引。属性值预先生成，只测量DocParam本身；
+ * newDocParam每个文档新建DocParam，reuseDocParam复用同一个DocParam(setReuseFields)，用-prof gc比较分配量
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class DocParamBenchmark {
+    static final int ROWS = 1024;
+
+    private String[] ids = new String[ROWS];
+    private String[] names = new String[ROWS];
+    private String[] categories = new String[ROWS];
+    private String[] titles = new String[ROWS];
+    private String[] contents = new String[ROWS];
+    private Long[] prices = new Long[ROWS];
+    private Double[] scores = new Double[ROWS];
+    private Date[] times = new Date[ROWS];
+
+    private DocParam reused;
+    private int next;
+
+    @Setup
+    public void setup() {
+        BenchmarkCorpus corpus = new BenchmarkCorpus();
+        for (int i = 0; i < ROWS; i++) {
+            Document doc = corpus.next(i).getDocument();
+            ids[i] = doc.get("id");
+            names[i] = doc.get("name");
+            categories[i] = doc.get("category");
+            titles[i] = doc.get("title");
+            contents[i] = doc.get("content");
+            prices[i] = doc.getField("price").numericValue().longValue();
+            scores[i] = doc.getField("score").numericValue().doubleValue();
+            times[i] = new Date(doc.getField("time").numericValue().longValue());
+        }
+        reused = new DocParam();
+        reused.setReuseFields(true);
+    }
+
+    private void fill(DocParam doc, int i) {
+        doc.add("id", ids[i]);
+        doc.add("name", names[i]);
+        doc.add("category", categories[i]);
+        doc.add("title", titles[i], true);
+        doc.add("content", contents[i], true);
+        doc.add("price", prices[i]);
+        doc.add("score", scores[i]);
+        doc.add("time", times[i]);
+    }
+
+    @Benchmark
+    public Document newDocParam() {
+        DocParam doc = new DocParam();
+        fill(doc, next++ & (ROWS - 1));
+        return doc.getDocument();
+    }
+
+    @Benchmark
+    public Document reuseDocParam() {
+        reused.reset();
+        fill(reused, next++ & (ROWS - 1));
+        return reused.getDocument();
+    }
+}
@@ -0,0 +1,118 @@
+package com.smikevon.lucene.benchmark;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.smikevon.lucene.LuceneConfig;
+import com.smikevon.lucene.index.LuceneIndexException;
+import com.smikevon.lucene.index.SimpleIndex;
+
+/**
+ *
+ * SimpleIndex实时写入的耗时，分别在缓存writer与不缓存writer(NFS锁，每次写入都打开、关闭writer)两种配置下测量，
+ * 结果均为每个文档的耗时
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class IndexBenchmark {
+    static final int BATCH = 1000;
+    static final int UPDATE_DOCS = 10000;
+
+    @Param({ "true", "false" })
+    public boolean writerCache;
+
+    private File dir;
+    private String indexPath;
+    private BenchmarkCorpus corpus;
+    private int nextId;
+    private int nextUpdate;
+
+    @Setup
+    public void setup() throws LuceneIndexException {
+        if (!writerCache) {
+            LuceneConfig.notCacheWriter(600000, 10);
+        }
+        dir = BenchmarkCorpus.tempDir("index");
+        indexPath = dir.getAbsolutePath();
+        corpus = new BenchmarkCorpus();
+        SimpleIndex si = new SimpleIndex(indexPath);
+        for (nextId = 0; nextId < UPDATE_DOCS; nextId++) { // 供updateIndex更新的文档
+            corpus.fill(si, nextId);
+            si.batchAdd();
+        }
+        si.closeBatch();
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkCorpus.delete(dir);
+    }
+
+    /**
+     * 每个文档单独写入并commit
+     */
+    @Benchmark
+    public void addIndex() throws LuceneIndexException {
+        SimpleIndex si = new SimpleIndex(indexPath);
+        corpus.fill(si, nextId++);
+        si.addIndex();
+    }
+
+    /**
+     * 批量写入BATCH个文档后commit(缓存writer)或关闭writer(不缓存writer)
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void batchAdd() throws LuceneIndexException {
+        SimpleIndex si = new SimpleIndex(indexPath);
+        for (int i = 0; i < BATCH; i++) {
+            corpus.fill(si, nextId++);
+            si.batchAdd();
+        }
+        si.closeBatch();
+    }
+
+    /**
+     * 同batchAdd，但复用Field对象(setReuseFields)
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void batchAddReuse() throws LuceneIndexException {
+        SimpleIndex si = new SimpleIndex(indexPath);
+        si.setReuseFields(true);
+        for (int i = 0; i < BATCH; i++) {
+            corpus.fill(si, nextId++);
+            si.batchAdd();
+        }
+        si.closeBatch();
+    }
+
+    /**
+     * 按id更新已有的文档并commit
+     */
+    @Benchmark
+    public void updateIndex() throws LuceneIndexException {
+        SimpleIndex si = new SimpleIndex(indexPath);
+        corpus.fill(si, nextUpdate++ % UPDATE_DOCS);
+        si.updateIndex("id");
+    }
+}
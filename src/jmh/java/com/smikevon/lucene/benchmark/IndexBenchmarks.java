@@ -0,0 +1,29 @@
+package com.smikevon.lucene.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ *
+ * 运行写入类基准测试(IndexBenchmark、DocParamBenchmark、ScheduleRebuildBenchmark)并打开分配统计(-prof gc)，
+ * 其它命令行参数与JMH相同:
+ * <p>java -cp target/benchmarks.jar com.smikevon.lucene.benchmark.IndexBenchmarks [-p writerCache=false]</p>
+ *
+ */
+public class IndexBenchmarks {
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        OptionsBuilder options = new OptionsBuilder();
+        options.parent(cmd);
+        if (cmd.getIncludes().isEmpty()) {
+            options.include(IndexBenchmark.class.getSimpleName()).include(DocParamBenchmark.class.getSimpleName())
+                    .include(ScheduleRebuildBenchmark.class.getSimpleName());
+        }
+        options.addProfiler(GCProfiler.class);
+        new Runner(options.build()).run();
+    }
+}
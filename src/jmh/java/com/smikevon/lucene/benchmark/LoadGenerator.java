@@ -0,0 +1,284 @@
+package com.smikevon.lucene.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.lucene.search.SortField;
+
+import com.smikevon.lucene.LuceneConfig;
+import com.smikevon.lucene.index.SimpleIndex;
+import com.smikevon.lucene.metrics.Histogram;
+import com.smikevon.lucene.search.SearchParam.LogicType;
+import com.smikevon.lucene.search.SimpleQuery;
+
+/**
+ *
+ * 读写混合的压力测试：若干SimpleQuery读线程与SimpleIndex写线程在本地索引上持续运行指定时间，
+ * 输出每种操作的吞吐量及p50/p99/p99.9耗时，以及新写入文档的可见延迟(refresh lag)
+ *
+ * <p>按开环方式发压：每个线程按固定间隔排定每次操作的计划开始时间，落后时不跳过而是立即补做，
+ * 耗时从计划开始时间算起，因而包含排队等待的时间，避免coordinated omission低估尾部耗时。
+ * 另外单独统计不含排队的服务时间(service)。</p>
+ *
+ * <p>参数均为key=value形式，例如:<br>
+ * java -cp target/benchmarks.jar com.smikevon.lucene.benchmark.LoadGenerator readers=8 writers=2 readRate=4000
+ * writeRate=100 duration=60</p>
+ *
+ */
+public class LoadGenerator {
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<String, String>();
+    static {
+        DEFAULTS.put("index", ""); // 索引位置，为空则在java.io.tmpdir下新建(缓存的writer直到退出才关闭，因而不自动删除)
+        DEFAULTS.put("docs", "100000"); // 新建索引时预先写入的文档数
+        DEFAULTS.put("readers", "4"); // 读线程数
+        DEFAULTS.put("writers", "1"); // 写线程数
+        DEFAULTS.put("readRate", "1000"); // 所有读线程合计的目标吞吐量，次/秒
+        DEFAULTS.put("writeRate", "50"); // 所有写线程合计的目标吞吐量，次/秒
+        DEFAULTS.put("updateRatio", "0.5"); // 写操作中updateIndex(其余为addIndex)的比例
+        DEFAULTS.put("warmup", "10"); // 预热秒数，不计入结果
+        DEFAULTS.put("duration", "60"); // 测量秒数
+        DEFAULTS.put("writerCache", "true"); // false则使用notCacheWriter(NFS锁)
+        DEFAULTS.put("readerReopen", String.valueOf(LuceneConfig.getReaderReopen())); // 秒
+    }
+
+    private final Map<String, String> conf;
+    private final String indexPath;
+    private final int docs;
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final Map<String, Stat> stats = new LinkedHashMap<String, Stat>();
+    private final Histogram refreshLag = new Histogram();
+    private long measureStart;
+    private long end;
+
+    /** 最近一次写入完成的文档编号及完成时间，供refresh lag探测 */
+    private volatile long[] lastWrite;
+
+    static class Stat {
+        final Histogram latency = new Histogram();
+        final Histogram service = new Histogram();
+        final AtomicLong errors = new AtomicLong();
+    }
+
+    interface Operation {
+        void run(Random random) throws Exception;
+    }
+
+    LoadGenerator(Map<String, String> conf, String indexPath) {
+        this.conf = conf;
+        this.indexPath = indexPath;
+        this.docs = Integer.parseInt(conf.get("docs"));
+        nextId.set(docs);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> conf = new HashMap<String, String>(DEFAULTS);
+        for (String arg : args) {
+            int i = arg.indexOf('=');
+            if (i < 0 || !DEFAULTS.containsKey(arg.substring(0, i))) {
+                System.err.println("usage: LoadGenerator [key=value ...], keys: " + DEFAULTS);
+                System.exit(1);
+            }
+            conf.put(arg.substring(0, i), arg.substring(i + 1));
+        }
+        if (!Boolean.parseBoolean(conf.get("writerCache"))) {
+            LuceneConfig.notCacheWriter(600000, 10);
+        }
+        LuceneConfig.setReaderReopen(Integer.parseInt(conf.get("readerReopen")));
+
+        String indexPath = conf.get("index");
+        if (indexPath.length() == 0) {
+            indexPath = BenchmarkCorpus.tempDir("load").getAbsolutePath();
+            System.out.println("building " + conf.get("docs") + " docs in " + indexPath);
+            BenchmarkCorpus.build(indexPath, Integer.parseInt(conf.get("docs")));
+        }
+        new LoadGenerator(conf, indexPath).run();
+        System.exit(0);
+    }
+
+    void run() throws InterruptedException {
+        Map<String, Operation> reads = readOperations();
+        Map<String, Operation> writes = writeOperations();
+        for (String name : reads.keySet())
+            stats.put(name, new Stat());
+        for (String name : writes.keySet())
+            stats.put(name, new Stat());
+
+        int readers = Integer.parseInt(conf.get("readers"));
+        int writers = Integer.parseInt(conf.get("writers"));
+        double readRate = Double.parseDouble(conf.get("readRate"));
+        double writeRate = Double.parseDouble(conf.get("writeRate"));
+        long start = System.nanoTime() + 100000000L;
+        measureStart = start + Long.parseLong(conf.get("warmup")) * 1000000000L;
+        end = measureStart + Long.parseLong(conf.get("duration")) * 1000000000L;
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < readers; i++)
+            threads.add(new Worker("reader-" + i, reads, readers / readRate, start, i, readers));
+        for (int i = 0; i < writers; i++)
+            threads.add(new Worker("writer-" + i, writes, writers / writeRate, start, i, writers));
+        if (writers > 0 && writeRate > 0)
+            threads.add(new LagProbe());
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads)
+            t.join();
+        report();
+    }
+
+    private Map<String, Operation> readOperations() {
+        Map<String, Operation> ops = new LinkedHashMap<String, Operation>();
+        ops.put("search.analyzed", new Operation() {
+            public void run(Random random) {
+                String word = BenchmarkCorpus.CHINESE_WORDS[random.nextInt(BenchmarkCorpus.CHINESE_WORDS.length)];
+                new SimpleQuery(indexPath).analyzed("content", word, LogicType.AND).get(0, 10);
+            }
+        });
+        ops.put("search.wildcard", new Operation() {
+            public void run(Random random) {
+                new SimpleQuery(indexPath).and("name", "name" + random.nextInt(1000) + "*").get(0, 10);
+            }
+        });
+        ops.put("search.sortedRange", new Operation() {
+            public void run(Random random) {
+                long low = random.nextInt(90000);
+                new SimpleQuery(indexPath).rangeLong("price", low, low + 10000, LogicType.AND, true, false)
+                        .addSortField(new SortField("price", SortField.Type.LONG)).get(0, 10);
+            }
+        });
+        ops.put("search.count", new Operation() {
+            public void run(Random random) {
+                new SimpleQuery(indexPath).and("category", "cat" + random.nextInt(BenchmarkCorpus.CATEGORIES))
+                        .getTotalCount();
+            }
+        });
+        return ops;
+    }
+
+    private Map<String, Operation> writeOperations() {
+        final double updateRatio = Double.parseDouble(conf.get("updateRatio"));
+        Map<String, Operation> ops = new LinkedHashMap<String, Operation>();
+        // 每个写线程有自己的BenchmarkCorpus，避免共享Random
+        final ThreadLocal<BenchmarkCorpus> corpus = new ThreadLocal<BenchmarkCorpus>() {
+            @Override
+            protected BenchmarkCorpus initialValue() {
+                return new BenchmarkCorpus(BenchmarkCorpus.SEED + Thread.currentThread().getId());
+            }
+        };
+        ops.put("write", new Operation() {
+            public void run(Random random) throws Exception {
+                SimpleIndex si = new SimpleIndex(indexPath);
+                if (random.nextDouble() < updateRatio) {
+                    corpus.get().fill(si, random.nextInt(docs));
+                    si.updateIndex("id");
+                } else {
+                    int id = nextId.getAndIncrement();
+                    corpus.get().fill(si, id);
+                    si.addIndex();
+                    lastWrite = new long[] { id, System.nanoTime() };
+                }
+            }
+        });
+        return ops;
+    }
+
+    class Worker extends Thread {
+        private final String[] names;
+        private final Operation[] ops;
+        private final long interval;
+        private final long first;
+        private final Random random;
+
+        Worker(String name, Map<String, Operation> ops, double intervalSeconds, long start, int index, int threads) {
+            super(name);
+            this.names = ops.keySet().toArray(new String[0]);
+            this.ops = ops.values().toArray(new Operation[0]);
+            this.interval = (long) (intervalSeconds * 1000000000L);
+            this.first = start + interval * index / threads; // 错开各线程的计划时间
+            this.random = new Random(BenchmarkCorpus.SEED + name.hashCode());
+        }
+
+        @Override
+        public void run() {
+            if (interval <= 0)
+                return;
+            for (long planned = first; planned < end; planned += interval) {
+                long now;
+                while ((now = System.nanoTime()) < planned) {
+                    LockSupport.parkNanos(planned - now);
+                }
+                int i = random.nextInt(ops.length);
+                Stat stat = stats.get(names[i]);
+                long begin = System.nanoTime();
+                boolean failed = false;
+                try {
+                    ops[i].run(random);
+                } catch (Exception e) {
+                    failed = true;
+                }
+                long done = System.nanoTime();
+                if (planned < measureStart) // 预热
+                    continue;
+                if (failed) {
+                    stat.errors.incrementAndGet();
+                } else {
+                    stat.latency.record(done - planned);
+                    stat.service.record(done - begin);
+                }
+            }
+        }
+    }
+
+    /**
+     * 反复取最近写入的文档，轮询直到查询可见，记录从写入完成到可见的时间
+     */
+    class LagProbe extends Thread {
+        LagProbe() {
+            super("refresh-lag-probe");
+        }
+
+        @Override
+        public void run() {
+            long probed = -1;
+            while (System.nanoTime() < end) {
+                long[] write = lastWrite;
+                if (write == null || write[0] == probed) {
+                    LockSupport.parkNanos(10000000L);
+                    continue;
+                }
+                probed = write[0];
+                while (System.nanoTime() < end) {
+                    if (new SimpleQuery(indexPath).and("id", String.valueOf(probed)).getTotalCount() > 0) {
+                        if (write[1] >= measureStart)
+                            refreshLag.record(System.nanoTime() - write[1]);
+                        break;
+                    }
+                    LockSupport.parkNanos(5000000L);
+                }
+            }
+        }
+    }
+
+    private void report() {
+        double seconds = (end - measureStart) / 1e9;
+        System.out.println();
+        System.out.println("config: " + conf);
+        System.out.println(String.format("%-20s %10s %8s %10s %10s %10s %10s %12s", "operation", "ops/s", "errors",
+                "p50(ms)", "p99(ms)", "p99.9(ms)", "max(ms)", "svc p99(ms)"));
+        for (Map.Entry<String, Stat> e : stats.entrySet()) {
+            Stat s = e.getValue();
+            System.out.println(String.format("%-20s %10.1f %8d %10.3f %10.3f %10.3f %10.3f %12.3f", e.getKey(),
+                    s.latency.getCount() / seconds, s.errors.get(), s.latency.getP50Ms(), s.latency.getP99Ms(),
+                    s.latency.getP999Ms(), s.latency.getMaxMs(), s.service.getP99Ms()));
+        }
+        System.out.println(String.format("%-20s %10d %8s %10.3f %10.3f %10.3f %10.3f", "refresh lag",
+                refreshLag.getCount(), "", refreshLag.getP50Ms(), refreshLag.getP99Ms(), refreshLag.getP999Ms(),
+                refreshLag.getMaxMs()));
+    }
+}
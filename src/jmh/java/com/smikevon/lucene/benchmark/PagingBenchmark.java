@@ -0,0 +1,57 @@
+package com.smikevon.lucene.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.search.SortField;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.smikevon.lucene.search.SearchResult;
+import com.smikevon.lucene.search.SimpleQuery;
+
+/**
+ *
+ * 浅分页与深分页、按相关度与按属性排序的查询耗时，查询命中约22%的文档(category为cat1、cat10~cat19)
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class PagingBenchmark {
+    @Param({ "100000" })
+    public int docs;
+
+    @Param({ "0", "1000", "10000" })
+    public int start;
+
+    @Param({ "false", "true" })
+    public boolean sorted;
+
+    private SimpleQuery query;
+
+    @Setup
+    public void setup() throws Exception {
+        query = new SimpleQuery(BenchmarkCorpus.index(docs)).and("category", "cat1*");
+        if (sorted) {
+            query.addSortField(new SortField("price", SortField.Type.LONG, true));
+        }
+        query.get(0, 10);
+    }
+
+    @Benchmark
+    public SearchResult page() {
+        return query.get(start, 10);
+    }
+}
@@ -0,0 +1,64 @@
+package com.smikevon.lucene.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.Query;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.smikevon.lucene.search.SearchParam.QueryType;
+import com.smikevon.lucene.search.SearchResult;
+import com.smikevon.lucene.search.SimpleQuery;
+
+/**
+ *
+ * 各QueryType的查询构造(getQuery/getPropQuery)及执行耗时
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class QueryBenchmark {
+    @Param({ "100000" })
+    public int docs;
+
+    @Param({ "WILDCARD", "PREFIX", "FUZZY", "REGEXP", "ANALYZED", "TEXT_RANGE", "LONG_RANGE", "DOUBLE_RANGE" })
+    public QueryType type;
+
+    private SimpleQuery query;
+
+    @Setup
+    public void setup() throws Exception {
+        query = BenchmarkCorpus.query(BenchmarkCorpus.index(docs), type);
+        query.get(0, 10); // 打开searcher
+    }
+
+    /**
+     * 只构造查询，不访问索引
+     */
+    @Benchmark
+    public Query getQuery() throws ParseException {
+        return query.getQuery();
+    }
+
+    /**
+     * 构造、执行查询并读取前10个文档
+     */
+    @Benchmark
+    public SearchResult search() {
+        return query.get(0, 10);
+    }
+}
@@ -0,0 +1,50 @@
+package com.smikevon.lucene.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.smikevon.lucene.search.SearchResult;
+import com.smikevon.lucene.search.SimpleQuery;
+
+/**
+ *
+ * 读取文档并转换为Map(doc2map)的耗时，pageSize为0时只取总数(与getTotalCount相同)，与其之差即为结果物化的开销
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class ResultBenchmark {
+    @Param({ "100000" })
+    public int docs;
+
+    @Param({ "0", "10", "100", "1000" })
+    public int pageSize;
+
+    private SimpleQuery query;
+
+    @Setup
+    public void setup() throws Exception {
+        query = new SimpleQuery(BenchmarkCorpus.index(docs)).and("category", "cat1*");
+        query.get(0, 10);
+    }
+
+    @Benchmark
+    public SearchResult fetch() {
+        return query.get(0, pageSize);
+    }
+}
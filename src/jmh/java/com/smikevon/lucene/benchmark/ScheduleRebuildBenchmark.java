@@ -0,0 +1,98 @@
+package com.smikevon.lucene.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.smikevon.lucene.LuceneConfig;
+import com.smikevon.lucene.index.AbstractLuceneScheduleIndex;
+import com.smikevon.lucene.index.DocParam;
+import com.smikevon.lucene.index.LuceneIndexException;
+
+/**
+ *
+ * AbstractLuceneScheduleIndex全量重建(deleteAll、分页写入、forceMerge(1))的耗时，每次重建都是同一批文档，
+ * threads为0时按顺序逐页处理，否则使用setRebuildThreads的流水线
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class ScheduleRebuildBenchmark {
+    @Param({ "100000" })
+    public int docs;
+
+    @Param({ "true", "false" })
+    public boolean writerCache;
+
+    @Param({ "0", "1", "4" })
+    public int threads;
+
+    private File dir;
+    private String indexPath;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        if (!writerCache) {
+            LuceneConfig.notCacheWriter(600000, 10);
+        }
+        dir = BenchmarkCorpus.tempDir("schedule");
+        indexPath = dir.getAbsolutePath();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkCorpus.delete(dir);
+    }
+
+    @Benchmark
+    public void rebuild() throws LuceneIndexException {
+        CorpusScheduleIndex index = new CorpusScheduleIndex(indexPath, docs);
+        if (threads > 0) {
+            index.setRebuildThreads(threads, 2);
+        }
+        index.makeIndex();
+    }
+
+    static class CorpusScheduleIndex extends AbstractLuceneScheduleIndex<Integer> {
+        private final int docs;
+
+        CorpusScheduleIndex(String indexPath, int docs) {
+            super(indexPath);
+            this.docs = docs;
+        }
+
+        @Override
+        protected List<Integer> getList(int start, int size) {
+            List<Integer> list = new ArrayList<Integer>();
+            for (int i = start; i < docs && i < start + size; i++) {
+                list.add(i);
+            }
+            return list;
+        }
+
+        @Override
+        public DocParam[] getDocParam(Integer id) {
+            // 每个文档单独的种子，并行转换时内容与顺序无关
+            return new DocParam[] { new BenchmarkCorpus(BenchmarkCorpus.SEED + id).next(id) };
+        }
+    }
+}
@@ -0,0 +1,477 @@
+package com.smikevon.lucene;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.lucene.codecs.Codec;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.store.SimpleFSDirectory;
+
+import com.smikevon.lucene.index.IndexSorter;
+import com.smikevon.lucene.index.MergeConfig;
+import com.smikevon.lucene.search.SearchParam;
+
+/**
+ *
+ * 单个索引的写入及刷新设置，通过LuceneConfig.getIndexConfig(indexPath)取得后修改，或用LuceneConfig.setIndexConfig整体设置。
+ * writer相关的设置须在getIndexWriter之前完成
+ *
+ * <p>写锁方式(缓存writer或NFS锁)及reader的reopen间隔未单独设置时使用LuceneConfig的全局设置，
+ * 其余未设置的项与lucene的默认值相同。例如实时写入的小索引可用默认设置，
+ * 大批量全量重建的索引可调大RAM buffer并限制merge速度:</p>
+ * <pre>
+ * LuceneConfig.getIndexConfig(path).setRAMBufferSizeMB(256).setMaxThreadStates(4)
+ *         .setMergeConfig(new MergeConfig().setForceMergeSegments(0).setMaxMergeWriteMBPerSec(20));
+ * </pre>
+ *
+ */
+public class IndexConfig {
+    /**
+     * 索引目录的实现，AUTO为FSDirectory.open按平台选择(64位JRE为MMAP)
+     */
+    public static enum DirectoryType {
+        AUTO, MMAP, NIOFS, SIMPLEFS
+    }
+
+    private double ramBufferSizeMB = IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB;
+    private int maxBufferedDocs = IndexWriterConfig.DISABLE_AUTO_FLUSH;
+    private int maxThreadStates = IndexWriterConfig.DEFAULT_MAX_THREAD_STATES;
+    private boolean readerPooling = IndexWriterConfig.DEFAULT_READER_POOLING;
+    private Codec codec;
+    private MergeConfig mergeConfig = new MergeConfig();
+    private SortField indexSort;
+    private Integer readerReopen;
+    private Boolean writerCache;
+    private long writerMaxlocktime;
+    private int getWriterSleep;
+    private long groupCommitInterval = 0; // 为0则每次实时写入都commit
+    private int groupCommitMaxPending = 0;
+    private boolean operationLog;
+    private long operationLogSyncInterval = 0;
+    private int operationLogSegmentMB = 64;
+    private long nearRealtimeInterval = 0;
+    private long writerLeaderInterval = 0;
+    private long commitRetention = 0;
+    private String replicaPath;
+    private long replicaInterval;
+    private DirectoryType directoryType = DirectoryType.AUTO;
+    private double nrtCachingMaxMergeSizeMB;
+    private double nrtCachingMaxCachedMB;
+    private int warmTopN;
+    private String warmFile;
+    private final List<SearchParam> warmQueries = new ArrayList<SearchParam>();
+    private final List<SortField> warmSortFields = new ArrayList<SortField>();
+    private final List<String> warmGroupFields = new ArrayList<String>();
+
+    public double getRAMBufferSizeMB() {
+        return ramBufferSizeMB;
+    }
+
+    /**
+     * 设置写入缓存的内存大小，超过时flush为新的segment，批量写入的大索引调大可减少segment数和merge
+     * @param ramBufferSizeMB 单位为MB，默认16，为-1则只按setMaxBufferedDocs flush
+     */
+    public IndexConfig setRAMBufferSizeMB(double ramBufferSizeMB) {
+        if (ramBufferSizeMB == IndexWriterConfig.DISABLE_AUTO_FLUSH && maxBufferedDocs == IndexWriterConfig.DISABLE_AUTO_FLUSH) {
+            throw new IllegalArgumentException("ramBufferSizeMB和maxBufferedDocs不能都为-1");
+        }
+        this.ramBufferSizeMB = ramBufferSizeMB;
+        return this;
+    }
+
+    public int getMaxBufferedDocs() {
+        return maxBufferedDocs;
+    }
+
+    /**
+     * @param maxBufferedDocs 缓存的文档数达到该值时flush，默认为-1即只按内存大小flush
+     */
+    public IndexConfig setMaxBufferedDocs(int maxBufferedDocs) {
+        if (maxBufferedDocs == IndexWriterConfig.DISABLE_AUTO_FLUSH && ramBufferSizeMB == IndexWriterConfig.DISABLE_AUTO_FLUSH) {
+            throw new IllegalArgumentException("ramBufferSizeMB和maxBufferedDocs不能都为-1");
+        }
+        this.maxBufferedDocs = maxBufferedDocs;
+        return this;
+    }
+
+    public int getMaxThreadStates() {
+        return maxThreadStates;
+    }
+
+    /**
+     * @param maxThreadStates 可同时写入的线程数，默认8
+     */
+    public IndexConfig setMaxThreadStates(int maxThreadStates) {
+        this.maxThreadStates = maxThreadStates;
+        return this;
+    }
+
+    public boolean isReaderPooling() {
+        return readerPooling;
+    }
+
+    /**
+     * @param readerPooling writer是否缓存打开的segment reader，删除和更新较多时可减少重复打开，默认false
+     */
+    public IndexConfig setReaderPooling(boolean readerPooling) {
+        this.readerPooling = readerPooling;
+        return this;
+    }
+
+    public Codec getCodec() {
+        return codec;
+    }
+
+    /**
+     * @param codec 索引格式，为null则使用lucene的默认格式
+     */
+    public IndexConfig setCodec(Codec codec) {
+        this.codec = codec;
+        return this;
+    }
+
+    public MergeConfig getMergeConfig() {
+        return mergeConfig;
+    }
+
+    /**
+     * @param mergeConfig merge设置，为null则恢复默认
+     */
+    public IndexConfig setMergeConfig(MergeConfig mergeConfig) {
+        this.mergeConfig = mergeConfig != null ? mergeConfig : new MergeConfig();
+        return this;
+    }
+
+    public SortField getIndexSort() {
+        return indexSort;
+    }
+
+    /**
+     * 见LuceneConfig.setIndexSort
+     * @param indexSort 排序属性，只支持数字(含日期)属性，为null则取消
+     */
+    public IndexConfig setIndexSort(SortField indexSort) {
+        this.indexSort = indexSort != null ? IndexSorter.normalize(indexSort) : null;
+        return this;
+    }
+
+    /**
+     * @return reader可能需要重新打开的检测时间，单位为秒(s)
+     */
+    public int getReaderReopen() {
+        return readerReopen != null ? readerReopen : LuceneConfig.getReaderReopen();
+    }
+
+    /**
+     * @param readerReopen 单位为秒(s)，为null则使用LuceneConfig.getReaderReopen()
+     */
+    public IndexConfig setReaderReopen(Integer readerReopen) {
+        this.readerReopen = readerReopen;
+        return this;
+    }
+
+    public boolean isWriterCache() {
+        return writerCache != null ? writerCache : LuceneConfig.isWriterCache();
+    }
+
+    public long getWriterMaxlocktime() {
+        return writerCache != null ? writerMaxlocktime : LuceneConfig.getWriterMaxlocktime();
+    }
+
+    public int getGetWriterSleep() {
+        return writerCache != null ? getWriterSleep : LuceneConfig.getGetWriterSleep();
+    }
+
+    /**
+     * 该索引缓存writer，见LuceneConfig.cacheWriter
+     */
+    public IndexConfig cacheWriter() {
+        this.writerCache = true;
+        this.writerMaxlocktime = LuceneConfig.getWriterMaxlocktime();
+        this.getWriterSleep = LuceneConfig.getGetWriterSleep();
+        return this;
+    }
+
+    /**
+     * 该索引不缓存writer，见LuceneConfig.notCacheWriter
+     * @param writerMaxlocktime 写锁的租约时间，持有者每隔1/3租约续约，超过该时间没有续约的锁可被其它进程接管,单位为毫秒(ms)。
+     * @param getWriterSleep 等待获取写锁时退避重试的最大间隔，单位为毫秒(ms)
+     */
+    public IndexConfig notCacheWriter(long writerMaxlocktime, int getWriterSleep) {
+        this.writerCache = false;
+        this.writerMaxlocktime = writerMaxlocktime;
+        this.getWriterSleep = getWriterSleep;
+        return this;
+    }
+
+    public long getGroupCommitInterval() {
+        return groupCommitInterval;
+    }
+
+    public int getGroupCommitMaxPending() {
+        return groupCommitMaxPending;
+    }
+
+    /**
+     * 设置实时写入(SimpleIndex的addIndex、updateIndex、deleteIndex)合并提交：写入立即进入缓存的writer，
+     * 但不再每次都commit，而是由后台线程在第一次未提交的写入之后interval毫秒、或未提交的写入达到maxPending次时统一commit。
+     * 进程异常退出时未提交的写入会丢失，需要确认写入已落盘时等待SimpleIndex.getCommitFuture()。
+     * 只在缓存writer时有效
+     * @param interval 单位为毫秒(ms)，为0则取消合并提交
+     * @param maxPending 为0则只按时间提交
+     */
+    public IndexConfig setGroupCommit(long interval, int maxPending) {
+        this.groupCommitInterval = interval;
+        this.groupCommitMaxPending = maxPending;
+        return this;
+    }
+
+    public boolean isOperationLog() {
+        return operationLog;
+    }
+
+    public long getOperationLogSyncInterval() {
+        return operationLogSyncInterval;
+    }
+
+    public int getOperationLogSegmentMB() {
+        return operationLogSegmentMB;
+    }
+
+    /**
+     * 设置实时写入先写操作日志(保存在索引目录旁的目录.oplog中)，打开writer时重放最后一次commit之后的操作，
+     * 进程崩溃时已返回的写入不会丢失。启用后实时写入不再每次commit，而按setGroupCommit的设置合并提交，未设置时每秒提交一次；
+     * commit期间实时写入等待。只在缓存writer时有效，删除条件或属性值不能写入日志(如Reader、TokenStream)的写入仍立即commit
+     * @param enabled 是否启用
+     * @param syncInterval 为0则每次写入返回前fsync(并发的写入合并为一次)，大于0则每隔syncInterval毫秒fsync一次，
+     *            崩溃时最多丢失这段时间内的写入
+     * @param segmentMB 日志分段的大小，单位为MB
+     */
+    public IndexConfig setOperationLog(boolean enabled, long syncInterval, int segmentMB) {
+        this.operationLog = enabled;
+        this.operationLogSyncInterval = syncInterval;
+        this.operationLogSegmentMB = segmentMB;
+        return this;
+    }
+
+    public long getNearRealtimeInterval() {
+        return nearRealtimeInterval;
+    }
+
+    /**
+     * @return 是否从缓存的writer打开近实时的searcher
+     */
+    public boolean isNearRealtime() {
+        return nearRealtimeInterval > 0 && isWriterCache();
+    }
+
+    /**
+     * 设置查询从本进程缓存的writer打开近实时(NRT)的searcher，由后台线程每隔refreshInterval毫秒刷新，
+     * 写入不需要commit即可被查询到。查询时用SimpleQuery.waitFor(SimpleIndex.getGeneration())可保证看到该次写入。
+     * 可见性不再依赖commit，配合setGroupCommit或setOperationLog可避免每次写入都fsync。
+     * 只在缓存writer时有效，查询会在本进程打开该索引的writer
+     * @param refreshInterval 单位为毫秒(ms)，为0则取消，查询只看到已commit的数据并按readerReopen重新打开
+     */
+    public IndexConfig setNearRealtime(long refreshInterval) {
+        this.nearRealtimeInterval = refreshInterval;
+        return this;
+    }
+
+    public long getWriterLeaderInterval() {
+        return writerLeaderInterval;
+    }
+
+    /**
+     * @return 是否由写入leader执行本索引的实时写入
+     */
+    public boolean isWriterLeader() {
+        return writerLeaderInterval > 0 && !isWriterCache();
+    }
+
+    /**
+     * 设置不缓存writer的多进程部署中由一个进程作为写入leader：各进程竞争写锁，取得的进程持有writer不关闭，
+     * 作用与缓存writer相同；其余进程的实时写入(SimpleIndex的addIndex、updateIndex、deleteIndex)写入索引目录旁的.spool目录，
+     * 由leader每隔interval毫秒批量写入并一次commit，getCommitFuture()在leader提交后完成。
+     * leader退出后其它进程在写锁的租约(notCacheWriter的writerMaxlocktime)过期后接管。
+     * 非leader进程中不能转发的写入(批量删除、按查询删除、含Reader属性的文档等)抛出异常，批量写入和全量重建应在leader进程执行
+     * @param interval 单位为毫秒(ms)，为0则取消
+     */
+    public IndexConfig setWriterLeader(long interval) {
+        this.writerLeaderInterval = interval;
+        return this;
+    }
+
+    public long getCommitRetention() {
+        return commitRetention;
+    }
+
+    /**
+     * writer端设置：被新的commit覆盖后的commit再保留retention毫秒才删除，供IndexReplica复制，应大于replica复制一次的最长时间
+     * @param retention 单位为毫秒(ms)，为0则只保留最新的commit
+     */
+    public IndexConfig setCommitRetention(long retention) {
+        this.commitRetention = retention;
+        return this;
+    }
+
+    public String getReplicaPath() {
+        return replicaPath;
+    }
+
+    public long getReplicaInterval() {
+        return replicaInterval;
+    }
+
+    /**
+     * 查询端设置：查询不直接读取indexPath(如NFS)，而由后台线程每隔interval毫秒将新的commit复制到本地目录replicaPath，
+     * 查询打开本地的副本，见IndexReplica。设置了setNearRealtime时无效
+     * @param replicaPath 本地目录，为null则取消
+     * @param interval 单位为毫秒(ms)
+     */
+    public IndexConfig setReplica(String replicaPath, long interval) {
+        if (replicaPath != null && interval <= 0) {
+            throw new IllegalArgumentException("interval=" + interval);
+        }
+        this.replicaPath = replicaPath;
+        this.replicaInterval = interval;
+        return this;
+    }
+
+    public DirectoryType getDirectoryType() {
+        return directoryType;
+    }
+
+    /**
+     * 设置writer和查询打开索引目录使用的实现。读多写少、索引可放入页缓存时MMAP的查询最快，不经过read系统调用和堆内缓冲；
+     * NIOFS适合32位JRE、虚拟地址空间受限或不希望映射大文件的情况，多线程读取同一文件时不加锁；
+     * SIMPLEFS多线程读取同一文件时互斥，只用于兼容。DirectoryBenchmark给出各实现的查询耗时
+     * @param directoryType 为null则恢复AUTO
+     */
+    public IndexConfig setDirectoryType(DirectoryType directoryType) {
+        this.directoryType = directoryType != null ? directoryType : DirectoryType.AUTO;
+        return this;
+    }
+
+    public double getNRTCachingMaxMergeSizeMB() {
+        return nrtCachingMaxMergeSizeMB;
+    }
+
+    public double getNRTCachingMaxCachedMB() {
+        return nrtCachingMaxCachedMB;
+    }
+
+    /**
+     * writer端用NRTCachingDirectory包装索引目录：flush和merge产生的小segment先保存在内存中，commit时才写入磁盘，
+     * 适合配合setNearRealtime频繁刷新、每次只写入少量文档的索引，避免大量小文件的创建和删除
+     * @param maxMergeSizeMB 不超过该大小的merge产生的segment保存在内存中，单位为MB，为0则取消
+     * @param maxCachedMB 内存中保存的segment的总大小上限，单位为MB
+     */
+    public IndexConfig setNRTCaching(double maxMergeSizeMB, double maxCachedMB) {
+        this.nrtCachingMaxMergeSizeMB = maxMergeSizeMB;
+        this.nrtCachingMaxCachedMB = maxCachedMB;
+        return this;
+    }
+
+    public boolean isNRTCaching() {
+        return nrtCachingMaxMergeSizeMB > 0 && nrtCachingMaxCachedMB > 0;
+    }
+
+    /**
+     * @return 按setDirectoryType打开的目录，writer及查询都使用该方法打开索引目录
+     */
+    public FSDirectory newDirectory(File dir) throws IOException {
+        switch (directoryType) {
+            case MMAP:
+                return new MMapDirectory(dir);
+            case NIOFS:
+                return new NIOFSDirectory(dir);
+            case SIMPLEFS:
+                return new SimpleFSDirectory(dir);
+            case AUTO:
+            default:
+                return FSDirectory.open(dir);
+        }
+    }
+
+    public int getWarmTopN() {
+        return warmTopN;
+    }
+
+    public String getWarmFile() {
+        return warmFile;
+    }
+
+    /**
+     * 查询端设置：记录最近查询中出现次数最多的topN个查询，新的searcher(启动后第一次打开、每次reopen)发布前
+     * 先在其上执行这些查询，使排序属性的FieldCache、词典和操作系统页缓存在用户查询前加载。
+     * 各查询的次数每分钟减半，以反映最近的查询。近实时刷新只加载addWarmSortField、addWarmGroupField的FieldCache，不执行查询
+     * @param topN 为0则不记录
+     * @param warmFile 记录的查询在预热时(至多每分钟一次)及进程退出时保存到该文件，启动后第一次打开searcher时读取；为null则只保存在内存中
+     */
+    public IndexConfig setWarming(int topN, String warmFile) {
+        this.warmTopN = topN;
+        this.warmFile = warmFile;
+        return this;
+    }
+
+    public List<SearchParam> getWarmQueries() {
+        return Collections.unmodifiableList(warmQueries);
+    }
+
+    /**
+     * 添加固定的预热查询，在记录的查询之前执行
+     */
+    public IndexConfig addWarmQuery(SearchParam param) {
+        warmQueries.add(param);
+        return this;
+    }
+
+    public List<SortField> getWarmSortFields() {
+        return Collections.unmodifiableList(warmSortFields);
+    }
+
+    /**
+     * 添加预热时加载FieldCache的排序属性
+     */
+    public IndexConfig addWarmSortField(SortField sortField) {
+        warmSortFields.add(sortField);
+        return this;
+    }
+
+    public List<String> getWarmGroupFields() {
+        return Collections.unmodifiableList(warmGroupFields);
+    }
+
+    /**
+     * 添加预热时加载FieldCache(按词序号)的分组属性，见SearchParam.setGroup
+     */
+    public IndexConfig addWarmGroupField(String groupField) {
+        warmGroupFields.add(groupField);
+        return this;
+    }
+
+    public boolean isWarming() {
+        return warmTopN > 0 || !warmQueries.isEmpty() || !warmSortFields.isEmpty() || !warmGroupFields.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "IndexConfig [ramBufferSizeMB=" + ramBufferSizeMB + ", maxBufferedDocs=" + maxBufferedDocs
+                + ", maxThreadStates=" + maxThreadStates + ", readerPooling=" + readerPooling + ", codec=" + codec
+                + ", indexSort=" + indexSort + ", readerReopen=" + getReaderReopen() + ", writerCache="
+                + isWriterCache() + ", groupCommit=" + groupCommitInterval + "ms/" + groupCommitMaxPending
+                + ", operationLog=" + operationLog + ", nearRealtime=" + nearRealtimeInterval + "ms, writerLeader="
+                + writerLeaderInterval + "ms, commitRetention=" + commitRetention + "ms, replica=" + replicaPath
+                + ", directory=" + directoryType + ", nrtCaching=" + nrtCachingMaxMergeSizeMB + "/"
+                + nrtCachingMaxCachedMB + "MB, warmTopN=" + warmTopN + ", warmQueries=" + warmQueries.size()
+                + ", warmSortFields=" + warmSortFields + ", warmGroupFields=" + warmGroupFields + ", " + mergeConfig
+                + "]";
+    }
+}
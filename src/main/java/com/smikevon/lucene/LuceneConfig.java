@@ -1,11 +1,26 @@
 package com.smikevon.lucene;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.lucene.search.SortField;
+
+import com.smikevon.lucene.index.MergeConfig;
+
 public class LuceneConfig {
     private static boolean writerCache = true;
     private static long writerMaxlocktime = 600000;
     private static int getWriterSleep = 1000;
     private static int readerReopen = 30;
     private static int schedulePagenum = 10000;
+    private static int automatonCacheSize = 1000;
+    private static double groupCacheMB = 16;
+    private static ConcurrentHashMap<String, IndexConfig> indexConfigs = new ConcurrentHashMap<String, IndexConfig>();
+    private static long slowQueryThreshold = -1;
+    private static Map<String, Long> slowQueryThresholds = new ConcurrentHashMap<String, Long>();
+    private static String slowQueryLogFile = "logs/lucene-slow-query.log";
+    private static int slowQueryLogMaxMB = 100;
+    private static int slowQueryLogMaxFiles = 5;
 
     public static boolean isWriterCache() {
         return writerCache;
@@ -28,8 +43,8 @@ public class LuceneConfig {
 
     /**
      * 不缓存writer，适用于索引保存在NFS上，多进程抢占index锁的情况
-     * @param writerMaxlocktime 当锁的时间超过该值表示的时间后可自动清除锁,单位为毫秒(ms)。
-     * @param getWriterSleep 等待获取写锁的睡眠时间，单位为毫秒(ms)
+     * @param writerMaxlocktime 写锁的租约时间，持有者每隔1/3租约续约，超过该时间没有续约的锁可被其它进程接管,单位为毫秒(ms)。
+     * @param getWriterSleep 等待获取写锁时退避重试的最大间隔，单位为毫秒(ms)
      */
     public static void notCacheWriter(long writerMaxlocktime,int getWriterSleep) {
         LuceneConfig.writerCache = false;
@@ -61,4 +76,139 @@ public class LuceneConfig {
         LuceneConfig.schedulePagenum = schedulePagenum;
     }
 
+    public static int getAutomatonCacheSize() {
+        return automatonCacheSize;
+    }
+
+    /**
+     * 设置FUZZY、REGEXP、WILDCARD查询自动机缓存的最大条目数，可参考AutomatonCache的命中率调整
+     * @param automatonCacheSize 最大条目数,为0则不缓存
+     */
+    public static void setAutomatonCacheSize(int automatonCacheSize) {
+        LuceneConfig.automatonCacheSize = automatonCacheSize;
+    }
+
+    public static double getGroupCacheMB() {
+        return groupCacheMB;
+    }
+
+    /**
+     * 设置分组查询缓存第一轮命中文档的内存上限，未超过时第二轮直接回放缓存而不必再执行一次查询
+     * @param groupCacheMB 单位为MB
+     */
+    public static void setGroupCacheMB(double groupCacheMB) {
+        LuceneConfig.groupCacheMB = groupCacheMB;
+    }
+
+    /**
+     * @return 该索引的设置，未设置时新建一个默认设置并登记，对返回值的修改即对该索引生效
+     */
+    public static IndexConfig getIndexConfig(String indexPath) {
+        IndexConfig config = indexConfigs.get(indexPath);
+        if (config == null) {
+            IndexConfig created = new IndexConfig();
+            config = indexConfigs.putIfAbsent(indexPath, created);
+            if (config == null) {
+                config = created;
+            }
+        }
+        return config;
+    }
+
+    /**
+     * 设置索引的writer、merge、刷新及写锁方式，须在getIndexWriter之前调用
+     * @param indexPath 索引文件位置
+     * @param indexConfig 该索引的设置，为null则恢复默认
+     */
+    public static void setIndexConfig(String indexPath, IndexConfig indexConfig) {
+        if (indexConfig == null) {
+            indexConfigs.remove(indexPath);
+        } else {
+            indexConfigs.put(indexPath, indexConfig);
+        }
+    }
+
+    public static SortField getIndexSort(String indexPath) {
+        return getIndexConfig(indexPath).getIndexSort();
+    }
+
+    /**
+     * 设置索引内segment的排序方式，须在getIndexWriter之前调用。合并后的segment按该属性有序，
+     * 查询的排序与之相同时每个有序segment只需收集前N个文档，此时SearchResult的总数只是下限
+     * @param indexPath 索引文件位置
+     * @param sortField 排序属性，只支持数字(含日期)属性，为null则取消
+     */
+    public static void setIndexSort(String indexPath, SortField sortField) {
+        getIndexConfig(indexPath).setIndexSort(sortField);
+    }
+
+    /**
+     * @return 该索引的merge设置
+     */
+    public static MergeConfig getMergeConfig(String indexPath) {
+        return getIndexConfig(indexPath).getMergeConfig();
+    }
+
+    /**
+     * 设置索引的merge策略、merge线程数、merge限速及forceMerge方式，须在getIndexWriter之前调用
+     * @param indexPath 索引文件位置
+     * @param mergeConfig merge设置，为null则恢复默认
+     */
+    public static void setMergeConfig(String indexPath, MergeConfig mergeConfig) {
+        getIndexConfig(indexPath).setMergeConfig(mergeConfig);
+    }
+
+    /**
+     * @return 该索引的慢查询阈值，未单独设置时返回全局阈值，小于0表示不记录慢查询
+     */
+    public static long getSlowQueryThreshold(String indexPath) {
+        Long threshold = slowQueryThresholds.get(indexPath);
+        return threshold != null ? threshold : slowQueryThreshold;
+    }
+
+    /**
+     * 设置全局慢查询阈值，耗时达到阈值的查询将异步写入慢查询日志(见setSlowQueryLog)
+     * @param slowQueryThreshold 单位为毫秒(ms)，小于0则不记录，默认为-1
+     */
+    public static void setSlowQueryThreshold(long slowQueryThreshold) {
+        LuceneConfig.slowQueryThreshold = slowQueryThreshold;
+    }
+
+    /**
+     * 设置单个索引的慢查询阈值，优先于全局阈值
+     * @param indexPath 索引文件位置
+     * @param slowQueryThreshold 单位为毫秒(ms)，小于0则该索引不记录，为null则改用全局阈值
+     */
+    public static void setSlowQueryThreshold(String indexPath, Long slowQueryThreshold) {
+        if (slowQueryThreshold == null) {
+            slowQueryThresholds.remove(indexPath);
+        } else {
+            slowQueryThresholds.put(indexPath, slowQueryThreshold);
+        }
+    }
+
+    public static String getSlowQueryLogFile() {
+        return slowQueryLogFile;
+    }
+
+    public static int getSlowQueryLogMaxMB() {
+        return slowQueryLogMaxMB;
+    }
+
+    public static int getSlowQueryLogMaxFiles() {
+        return slowQueryLogMaxFiles;
+    }
+
+    /**
+     * 设置慢查询日志文件，须在第一条慢查询之前调用。文件超过maxMB后改名为file.1、file.2...，最多保留maxFiles个旧文件
+     * @param slowQueryLogFile 日志文件位置，默认为logs/lucene-slow-query.log
+     * @param maxMB 单个文件的最大大小，单位为MB
+     * @param maxFiles 保留的旧文件数
+     */
+    public static void setSlowQueryLog(String slowQueryLogFile, int maxMB, int maxFiles) {
+        LuceneConfig.slowQueryLogFile = slowQueryLogFile;
+        LuceneConfig.slowQueryLogMaxMB = maxMB;
+        LuceneConfig.slowQueryLogMaxFiles = maxFiles;
+    }
+
 }
@@ -0,0 +1,174 @@
+package com.smikevon.lucene.index;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+
+/**
+ *
+ * 支持增量同步的定时索引：除makeIndex全量重建外，makeDeltaIndex只同步上次同步以来变化及删除的对象。
+ * 扩展类在getList、getDocParam之外须实现getKeyField、getKey、getChangedListAfter，有删除时覆盖getDeletedKeys；
+ * key属性须以不分词方式写入
+ *
+ * @param <T> 泛型对象类型
+ */
+public abstract class AbstractLuceneDeltaIndex<T> extends AbstractLuceneScheduleIndex<T> {
+
+    protected AbstractLuceneDeltaIndex(String indexPath) {
+        super(indexPath);
+    }
+
+    /**
+     * 增量同步：取上次同步(全量或增量)时保存在索引提交数据中的水位，将此后删除的对象按getKeyField删除，
+     * 变化的对象按getKeyField更新(先删除同key的文档再写入)，不deleteAll也不forceMerge，最后保存新的水位。
+     * 索引中还没有水位时改为执行makeIndex()全量重建
+     */
+    public final void makeDeltaIndex() throws LuceneIndexException {
+        boolean synced;
+        if (_writer != null) {
+            synced = makeDeltaIndex0();
+        } else {
+            try {
+                BlueGreenRebuild.beginWrite(indexPath, null); // 正在蓝绿重建时等待切换后写入新索引
+            } catch (InterruptedException e) {
+                throw new LuceneIndexException(e);
+            }
+            try {
+                synced = makeDeltaIndex0();
+            } finally {
+                BlueGreenRebuild.endWrite(indexPath);
+            }
+        }
+        if (!synced) {
+            logger.info("{} 没有增量水位，执行全量重建.", indexPath);
+            makeIndex(); // 在写入锁之外执行，蓝绿重建需要等待已开始的写入完成
+        }
+    }
+
+    /**
+     * @return 是否完成了增量同步，没有水位时返回false
+     */
+    private boolean makeDeltaIndex0() throws LuceneIndexException {
+        long t1 = System.currentTimeMillis();
+        long n1 = System.nanoTime();
+        IndexWriter writer = _writer == null ? getIndexWriter(indexPath) : _writer;
+        String since;
+        try {
+            since = writer.getCommitData().get(WATERMARK);
+            if (since != null) {
+                addDeltaIndex(writer, since);
+            }
+        } catch (Throwable e) {
+            if (_writer == null && !isResident(writer)) {
+                try {
+                    writer.rollback(); // 释放写锁，已写入的部分不提交
+                } catch (IOException e1) {
+                    logger.error(e1.getMessage(), e1);
+                }
+            }
+            throw e instanceof LuceneIndexException ? (LuceneIndexException) e : new LuceneIndexException(e);
+        }
+
+        if (_writer == null)
+            releaseIndexWriter(writer);
+        if (since == null) {
+            return false;
+        }
+        advanceGeneration();
+        metrics().getIndexLatency().record(System.nanoTime() - n1);
+        if (_writer == null)
+            logger.info("===> 增量同步共计用时:{} 毫秒.", System.currentTimeMillis() - t1);
+        return true;
+    }
+
+    private void addDeltaIndex(IndexWriter writer, String since) throws Exception {
+        String watermark = newWatermark();
+        String keyField = getKeyField();
+
+        Collection<String> deleted = getDeletedKeys(since);
+        if (deleted != null && !deleted.isEmpty()) {
+            writer.deleteDocuments(LuceneRealtimeDeleteIndex.toTerms(keyField, deleted));
+        }
+
+        int changed = 0;
+        Iterator<T> it = changedIterator(since);
+        try {
+            while (it.hasNext()) {
+                T o = it.next();
+                Term key = new Term(keyField, getKey(o));
+                DocParam[] doc = accept(o) ? getDocParam(o) : null;
+                if (doc == null) {
+                    writer.deleteDocuments(key);
+                    continue;
+                }
+                List<Document> docs = new ArrayList<Document>(doc.length);
+                for (DocParam d : doc)
+                    docs.add(d.getDocument());
+                writer.updateDocuments(key, docs);
+                metrics().addDocsIndexed(doc.length);
+                changed++;
+            }
+        } catch (SourceException e) {
+            throw (Exception) e.getCause();
+        } finally {
+            if (it instanceof Closeable) {
+                ((Closeable) it).close();
+            }
+        }
+        setWatermark(writer, watermark);
+        logger.info("{} 增量同步: 删除{}个, 更新{}个, 水位{} -> {}", new Object[] { indexPath,
+                deleted == null ? 0 : deleted.size(), changed, since, watermark });
+    }
+
+    /**
+     * 增量同步时用于定位文档的属性名，例如主键id
+     */
+    protected abstract String getKeyField();
+
+    /**
+     * @return obj在getKeyField属性上的值
+     */
+    protected abstract String getKey(T obj);
+
+    /**
+     * 按游标(keyset)分页取水位之后新增或修改的对象，每页的查询代价与位置无关，例如
+     * <p>select ... where update_time >= #{watermark} and id > #{last.id} order by id limit #{size}</p>
+     * 一直调用到返回的集合为空，边界上的对象会重复更新，不影响结果
+     * @param watermark 上次同步时newWatermark的返回值
+     * @param last 上一页的最后一个对象，第一次调用为null
+     * @param size 查询个数
+     * @return 排在last之后的至多size个对象
+     */
+    protected abstract List<T> getChangedListAfter(String watermark, T last, int size) throws Exception;
+
+    /**
+     * 以迭代器作为增量同步的数据源，例如流式读取的数据库游标，迭代器实现了Closeable时同步结束后会调用close。
+     * 默认按LuceneConfig.getSchedulePagenum()逐页调用getChangedListAfter
+     * @param watermark 上次同步时newWatermark的返回值
+     * @return 水位之后新增或修改的对象
+     */
+    protected Iterator<T> changedIterator(final String watermark) throws Exception {
+        return new PageIterator<T>() {
+            @Override
+            List<T> nextPage(T last, int start, int size) throws Exception {
+                return getChangedListAfter(watermark, last, size);
+            }
+        };
+    }
+
+    /**
+     * @param watermark 上次同步时newWatermark的返回值
+     * @return 水位之后被删除的对象的key，默认没有删除
+     */
+    protected Collection<String> getDeletedKeys(String watermark) throws Exception {
+        return Collections.emptyList();
+    }
+}
@@ -1,23 +1,41 @@
 package com.smikevon.lucene.index;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.cn.smart.SmartChineseAnalyzer;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.sorter.SortingMergePolicy;
+import org.apache.lucene.search.SortField;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
-import org.apache.lucene.store.Lock;
+import org.apache.lucene.store.IOContext;
 import org.apache.lucene.store.LockObtainFailedException;
+import org.apache.lucene.store.NRTCachingDirectory;
+import org.apache.lucene.store.RateLimitedDirectoryWrapper;
 import org.apache.lucene.util.Version;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.smikevon.lucene.IndexConfig;
 import com.smikevon.lucene.LuceneConfig;
+import com.smikevon.lucene.metrics.IndexMetrics;
+import com.smikevon.lucene.metrics.LuceneMetrics;
+import com.smikevon.lucene.metrics.MetricsInfoStream;
+import com.smikevon.lucene.metrics.MetricsMergeScheduler;
+import com.smikevon.lucene.search.SimpleQuery;
 
 /**
  * 写入索引的基础抽象类
@@ -29,6 +47,19 @@ public abstract class AbstractLuceneIndex {
     protected String indexPath; // 索引全路径名
     protected final IndexWriter _writer;
     private static Map<String, IndexWriter> _writerCache = new HashMap<String, IndexWriter>();
+    private static Map<IndexWriter, String> _writerPaths = Collections
+            .synchronizedMap(new WeakHashMap<IndexWriter, String>());
+    private static final Map<String, AtomicLong> _generations = new ConcurrentHashMap<String, AtomicLong>();
+    boolean blueGreen; // 全量重建时写入新目录再切换，见AbstractLuceneScheduleIndex.setBlueGreen
+    private Future<Void> commitFuture = COMMITTED;
+    private long generation;
+    private static final Future<Void> COMMITTED = new FutureTask<Void>(new Runnable() {
+        public void run() {
+        }
+    }, null);
+    static {
+        ((FutureTask<Void>) COMMITTED).run();
+    }
 
     protected AbstractLuceneIndex(String indexPath) {
         this.indexPath = indexPath;
@@ -41,68 +72,227 @@ public abstract class AbstractLuceneIndex {
      * @param writer
      */
     protected AbstractLuceneIndex(IndexWriter writer) {
+        this.indexPath = getIndexPath(writer);
         this._writer = writer;
     }
 
+    /**
+     * @return 由getIndexWriter创建的writer返回创建时的indexPath，否则返回其目录的路径
+     */
+    static String getIndexPath(IndexWriter writer) {
+        String path = _writerPaths.get(writer);
+        if (path == null) {
+            Directory dir = writer.getDirectory();
+            path = dir instanceof FSDirectory ? ((FSDirectory) dir).getDirectory().getPath() : dir.toString();
+        }
+        return path;
+    }
+
+    /**
+     * @return 是否为实时写入，实时写入在设置了IndexConfig.setGroupCommit时合并提交
+     */
+    protected boolean isRealtime() {
+        return false;
+    }
+
+    /**
+     * @return 实时写入对应的操作日志记录，不能写入日志时返回null
+     */
+    OperationLog.Op toOperation() {
+        return null;
+    }
+
+    /**
+     * @return 覆盖最近一次makeIndex写入的commit，合并提交时可等待其完成以确认写入已落盘；未合并提交时已完成
+     */
+    public Future<Void> getCommitFuture() {
+        return commitFuture;
+    }
+
+    /**
+     * @return 最近一次makeIndex写入完成后的代号，作为SimpleQuery.waitFor的参数可保证查询看到该次写入
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return indexPath已完成的写入的最新代号，每次makeIndex完成后加1
+     */
+    public static long getGeneration(String indexPath) {
+        AtomicLong generation = _generations.get(indexPath);
+        return generation == null ? 0 : generation.get();
+    }
+
+    /**
+     * 写入完成后调用，取得新的代号
+     */
+    void advanceGeneration() {
+        generation = nextGeneration(indexPath);
+    }
+
+    private static long nextGeneration(String indexPath) {
+        AtomicLong generation = _generations.get(indexPath);
+        if (generation == null) {
+            synchronized (_generations) {
+                generation = _generations.get(indexPath);
+                if (generation == null) {
+                    generation = new AtomicLong();
+                    _generations.put(indexPath, generation);
+                }
+            }
+        }
+        return generation.incrementAndGet();
+    }
+
+    /**
+     * @return 本索引的指标
+     */
+    protected IndexMetrics metrics() {
+        return LuceneMetrics.get(indexPath);
+    }
+
     public static IndexWriter getIndexWriter(String indexPath) throws LuceneIndexException {
         log.debug("getIndexWriter( {} )", indexPath);
 
-        return getIndexWriter(indexPath, LuceneConfig.getWriterMaxlocktime());
+        return getIndexWriter(indexPath, LuceneConfig.getIndexConfig(indexPath).getWriterMaxlocktime());
     }
 
-    public static IndexWriter getIndexWriter(String indexPath, Long maxlocktime) throws LuceneIndexException {
-        File dirIndex = new File(indexPath);
+    /**
+     * @return 本进程缓存的indexPath的writer，没有时返回null
+     */
+    public static IndexWriter getCachedIndexWriter(String indexPath) {
+        synchronized (("index." + indexPath).intern()) {
+            return _writerCache.get(indexPath);
+        }
+    }
 
-        IndexWriter writer;
-        try {
-            Directory dir = FSDirectory.open(dirIndex);
+    /**
+     * @return writer是否常驻(缓存的writer，或本进程作为写入leader持有的writer)，使用后只commit不close
+     */
+    static boolean isResident(IndexWriter writer) {
+        return LuceneConfig.getIndexConfig(getIndexPath(writer)).isWriterCache() || WriterLeader.of(writer) != null;
+    }
 
-            if (!LuceneConfig.isWriterCache()) {
-                dir.setLockFactory(new NFSLockFactory(dirIndex)); // 将适用于索引保存在NFS的情况
-            }
+    static void registerIndexWriter(String indexPath, IndexWriter writer) {
+        _writerPaths.put(writer, indexPath);
+    }
+
+    /**
+     * @return indexPath的writer使用的配置，每个writer须使用新的实例
+     */
+    protected static IndexWriterConfig newIndexWriterConfig(String indexPath) {
+        // Analyzer analyzer = new StandardAnalyzer(Version.LUCENE_35);
+        Analyzer analyzer = new SmartChineseAnalyzer(Version.LUCENE_43);
+        IndexWriterConfig iwc = new IndexWriterConfig(Version.LUCENE_43, analyzer);
+        iwc.setOpenMode(OpenMode.CREATE_OR_APPEND);
+        // iwc.setOpenMode(OpenMode.CREATE_OR_APPEND);
+
+        // Optional: for better indexing performance, if you
+        // are indexing many documents, increase the RAM
+        // buffer. But if you do this, increase the max heap
+        // size to the JVM (eg add -Xmx512m or -Xmx1g):
+        //
+        // iwc.setRAMBufferSizeMB(256.0);
+        IndexConfig config = LuceneConfig.getIndexConfig(indexPath);
+        iwc.setMaxBufferedDocs(config.getMaxBufferedDocs());
+        iwc.setRAMBufferSizeMB(config.getRAMBufferSizeMB());
+        iwc.setMaxThreadStates(config.getMaxThreadStates());
+        iwc.setReaderPooling(config.isReaderPooling());
+        if (config.getCodec() != null) {
+            iwc.setCodec(config.getCodec());
+        }
 
-            // Analyzer analyzer = new StandardAnalyzer(Version.LUCENE_35);
-            Analyzer analyzer = new SmartChineseAnalyzer(Version.LUCENE_43);
-            IndexWriterConfig iwc = new IndexWriterConfig(Version.LUCENE_43, analyzer);
-            iwc.setOpenMode(OpenMode.CREATE_OR_APPEND);
-            // iwc.setOpenMode(OpenMode.CREATE_OR_APPEND);
+        IndexMetrics metrics = LuceneMetrics.get(indexPath);
+        MergeConfig mergeConfig = config.getMergeConfig();
+        if (config.getCommitRetention() > 0) {
+            iwc.setIndexDeletionPolicy(new CommitRetentionPolicy(config.getCommitRetention()));
+        }
+        iwc.setInfoStream(new MetricsInfoStream(metrics, iwc.getInfoStream()));
+        MetricsMergeScheduler scheduler = new MetricsMergeScheduler(metrics);
+        mergeConfig.configure(scheduler);
+        iwc.setMergeScheduler(scheduler);
+        iwc.setMergePolicy(mergeConfig.newMergePolicy());
+
+        SortField indexSort = config.getIndexSort();
+        if (indexSort != null) {
+            iwc.setMergePolicy(new SortingMergePolicy(iwc.getMergePolicy(), new IndexSorter(indexSort)));
+        }
+        return iwc;
+    }
 
-            // Optional: for better indexing performance, if you
-            // are indexing many documents, increase the RAM
-            // buffer. But if you do this, increase the max heap
-            // size to the JVM (eg add -Xmx512m or -Xmx1g):
-            //
-            // iwc.setRAMBufferSizeMB(256.0);
+    /**
+     * 打开indexPath对应的目录dir，目录的实现见IndexConfig.setDirectoryType；设置了NRT缓存时经NRTCachingDirectory，
+     * 设置了merge限速时merge的写入经RateLimitedDirectoryWrapper限速
+     */
+    static Directory openDirectory(String indexPath, File dir) throws IOException {
+        IndexConfig config = LuceneConfig.getIndexConfig(indexPath);
+        Directory directory = config.newDirectory(dir);
+        if (config.isNRTCaching()) {
+            directory = new NRTCachingDirectory(directory, config.getNRTCachingMaxMergeSizeMB(),
+                    config.getNRTCachingMaxCachedMB());
+        }
+        double mbPerSec = config.getMergeConfig().getMaxMergeWriteMBPerSec();
+        if (mbPerSec > 0) {
+            RateLimitedDirectoryWrapper limited = new RateLimitedDirectoryWrapper(directory);
+            limited.setMaxWriteMBPerSec(mbPerSec, IOContext.Context.MERGE);
+            directory = limited;
+        }
+        return directory;
+    }
+
+    public static IndexWriter getIndexWriter(String indexPath, Long maxlocktime) throws LuceneIndexException {
+        IndexWriter writer;
+        File dirIndex = new File(IndexLocation.resolve(indexPath));
+        IndexConfig config = LuceneConfig.getIndexConfig(indexPath);
+        if (config.isWriterLeader() && (writer = WriterLeader.get(indexPath).getWriter()) != null) {
+            return writer; // 本进程为写入leader
+        }
+
+        try {
+            Directory dir = openDirectory(indexPath, dirIndex);
+
+            IndexMetrics metrics = LuceneMetrics.get(indexPath);
+            IndexWriterConfig iwc = newIndexWriterConfig(indexPath);
+            if (!config.isWriterCache()) {
+                // 将适用于索引保存在NFS的情况
+                dir.setLockFactory(new LeaseLockFactory(dirIndex, maxlocktime != null ? maxlocktime : 0));
+                iwc.setWriteLockTimeout(0); // 由waitGetIndexWriter退避重试
+            }
 
             long t1 = System.currentTimeMillis();
             synchronized (("index." + indexPath).intern()) {
-                if (LuceneConfig.isWriterCache()) {
+                if (config.isWriterCache()) {
                     if ((writer = _writerCache.get(indexPath)) != null) {
                         return writer;
                     }
                 }
-                if (!IndexWriter.isLocked(dir)) {
-                    try {
-                        writer = new IndexWriter(dir, iwc);
-
-                        Runtime.getRuntime().addShutdownHook(new IndexWriterCloseThread(writer));
-                        log.debug("after construct IndexWriter.");
-                    } catch (LockObtainFailedException e) {
-                        log.warn("与其它JVM的线程争抢写锁失败,将重新等待!", e);
-                        long t2 = System.currentTimeMillis();
-                        writer = waitGetIndexWriter(dir, iwc, System.currentTimeMillis(), maxlocktime);
-                        log.debug("waitGetIndexWriter() cost {} ms.", System.currentTimeMillis() - t2);
-                    }
-                } else {
+                try {
+                    writer = new IndexWriter(dir, iwc);
+
+                    Runtime.getRuntime().addShutdownHook(new IndexWriterCloseThread(writer));
+                    log.debug("after construct IndexWriter.");
+                } catch (LockObtainFailedException e) {
                     log.debug("index is lock.");
                     long t2 = System.currentTimeMillis();
-                    writer = waitGetIndexWriter(dir, iwc, System.currentTimeMillis(), maxlocktime);
+                    writer = waitGetIndexWriter(dir, iwc, config);
+                    metrics.getWriterLockWait().record((System.currentTimeMillis() - t2) * 1000000);
                     log.debug("waitGetIndexWriter() cost {} ms.", System.currentTimeMillis() - t2);
                 }
-                if (LuceneConfig.isWriterCache()) {
+                if (config.isWriterCache()) {
+                    if (config.isOperationLog()) {
+                        try {
+                            OperationLog.open(indexPath, dirIndex, writer, config);
+                        } catch (Exception e) {
+                            writer.rollback();
+                            throw e;
+                        }
+                    }
                     _writerCache.put(indexPath, writer);
                 }
+                _writerPaths.put(writer, indexPath);
             }
+            OffPeakMerger.schedule(indexPath, config.getMergeConfig());
             log.debug("getIndexWriter cost {} ms.", System.currentTimeMillis() - t1);
         } catch (Exception e) {
             throw new LuceneIndexException(e);
@@ -111,48 +301,83 @@ public abstract class AbstractLuceneIndex {
         return writer;
     }
 
-    private static IndexWriter waitGetIndexWriter(Directory dir, IndexWriterConfig iwc, long start, Long maxlocktime)
+    /**
+     * 写锁被其它进程持有时按带随机抖动的指数退避重试：第一次最多等待10ms，之后每次的上限加倍，最大为getWriterSleep。
+     * 持有者的租约过期后由LeaseLock接管，不再按锁文件的创建时间强行解锁
+     */
+    private static IndexWriter waitGetIndexWriter(Directory dir, IndexWriterConfig iwc, IndexConfig config)
             throws LuceneIndexException {
-        IndexWriter writer = null;
+        if (config.isWriterCache()) {
+            throw new LuceneIndexException(
+                    "when LuceneConfig.getWriterMaxlocktime() >0, LuceneConfig.isWriterCache() should not be 'true'!");
+        }
+        long maxSleep = Math.max(1, config.getGetWriterSleep());
+        long bound = Math.min(10, maxSleep);
         try {
             while (true) {
-                if (IndexWriter.isLocked(dir)) {
-                    if (maxlocktime != null) {
-                        Lock lock = dir.makeLock(IndexWriter.WRITE_LOCK_NAME);
-                        if (!LuceneConfig.isWriterCache() && lock instanceof NFSLock) {
-                            NFSLock nlock = (NFSLock) lock;
-                            if (System.currentTimeMillis() - nlock.getLockedTime() > maxlocktime) {
-                                IndexWriter.unlock(dir);
-                                continue;
-                            }
-                        } else {
-                            throw new LuceneIndexException(
-                                    "when LuceneConfig.getWriterMaxlocktime() >0, LuceneConfig.isWriterCache() should not be 'true'!");
-                        }
-                    }
-                    Thread.sleep(LuceneConfig.getGetWriterSleep());
-                } else {
-                    try {
-                        writer = new IndexWriter(dir, iwc);
-
-                        Runtime.getRuntime().addShutdownHook(new IndexWriterCloseThread(writer));
-                    } catch (LockObtainFailedException e) {
-                        log.warn("与其它JVM的线程争抢写锁失败,将重新等待!", e);
-                        writer = waitGetIndexWriter(dir, iwc, start, maxlocktime);
-                    }
-                    break;
+                Thread.sleep(ThreadLocalRandom.current().nextLong(bound) + 1);
+                bound = Math.min(bound * 2, maxSleep);
+                try {
+                    IndexWriter writer = new IndexWriter(dir, iwc);
+
+                    Runtime.getRuntime().addShutdownHook(new IndexWriterCloseThread(writer));
+                    return writer;
+                } catch (LockObtainFailedException e) {
+                    log.debug("index is lock, retry in {} ms.", bound);
                 }
             }
         } catch (Exception e) {
             throw new LuceneIndexException(e);
         }
-        return writer;
+    }
+
+    /**
+     * 关闭并移出缓存中indexPath的writer，索引切换到新目录后调用，下次getIndexWriter将在新目录上打开
+     */
+    static void closeIndexWriter(String indexPath) throws IOException {
+        IndexWriter writer;
+        synchronized (("index." + indexPath).intern()) {
+            writer = _writerCache.remove(indexPath);
+        }
+        if (writer != null) {
+            closeIndexWriter(writer);
+        }
+        if (LuceneConfig.getIndexConfig(indexPath).isWriterLeader()) {
+            WriterLeader.get(indexPath).resign();
+        }
+    }
+
+    /**
+     * 提交getIndexWriter取得的writer，启用了操作日志时须调用该方法而不是writer.commit()，以便记录已提交的操作序号
+     */
+    public static void commitIndexWriter(IndexWriter writer) throws IOException {
+        OperationLog oplog = OperationLog.of(writer);
+        WriterLeader leader;
+        long t = System.nanoTime();
+        if (oplog != null) {
+            oplog.commit(writer);
+        } else if ((leader = WriterLeader.of(writer)) != null) {
+            leader.commit(writer);
+        } else {
+            writer.commit();
+        }
+        LuceneMetrics.get(getIndexPath(writer)).getCommitLatency().record(System.nanoTime() - t);
+    }
+
+    static void closeIndexWriter(IndexWriter writer) throws IOException {
+        GroupCommitter.closing(writer);
+        OperationLog oplog = OperationLog.of(writer);
+        if (oplog != null) {
+            oplog.close(writer);
+        } else {
+            writer.close();
+        }
     }
 
     public static void releaseIndexWriter(IndexWriter writer) throws LuceneIndexException {
         try {
-            if (LuceneConfig.isWriterCache()) {
-                writer.commit();
+            if (isResident(writer)) {
+                commitIndexWriter(writer);
             } else {
                 writer.close();
             }
@@ -162,6 +387,45 @@ public abstract class AbstractLuceneIndex {
     }
 
     private void addAllIndex(int maxNumSegments) throws Exception {
+        if (blueGreen && _writer == null) {
+            addAllIndexBlueGreen(maxNumSegments);
+            return;
+        }
+        if (_writer != null) {
+            addAllIndex(maxNumSegments, null, null);
+            return;
+        }
+
+        // 与蓝绿重建的切换互斥；重建期间记录本次写入，切换前写入新索引
+        OperationLog.Op captured = BlueGreenRebuild.inProgress(indexPath) ? toOperation() : null;
+        BlueGreenRebuild rebuild = BlueGreenRebuild.beginWrite(indexPath, captured);
+        try {
+            addAllIndex(maxNumSegments, rebuild, captured);
+        } finally {
+            BlueGreenRebuild.endWrite(indexPath);
+        }
+    }
+
+    /**
+     * @param rebuild 正在进行的蓝绿重建，写入成功后记录captured
+     * @param captured 本次写入的操作，没有准备时为null
+     */
+    private void addAllIndex(int maxNumSegments, BlueGreenRebuild rebuild, OperationLog.Op captured)
+            throws Exception {
+        if (_writer == null && isRealtime() && LuceneConfig.getIndexConfig(indexPath).isWriterLeader()) {
+            WriterLeader leader = WriterLeader.get(indexPath);
+            if (leader.getWriter() == null) {
+                OperationLog.Op op = captured != null ? captured : toOperation();
+                if (op == null) {
+                    throw new LuceneIndexException(indexPath + " 本进程不是写入leader，该写入不能转发: " + this);
+                }
+                commitFuture = leader.forward(op);
+                if (rebuild != null)
+                    rebuild.record(op);
+                return;
+            }
+        }
+
         IndexWriter writer = null;
         if (_writer == null) {
             writer = getIndexWriter(indexPath);
@@ -170,7 +434,25 @@ public abstract class AbstractLuceneIndex {
         }
 
         if (writer != null) {
-            addAllIndex(writer);
+            OperationLog oplog = _writer == null && isRealtime() ? OperationLog.of(writer) : null;
+            OperationLog.Op op = oplog == null ? null : captured != null ? captured : toOperation();
+            if (op != null) {
+                long seq = oplog.begin(op);
+                boolean written = false;
+                try {
+                    addAllIndex(writer);
+                    written = true;
+                } finally {
+                    if (written)
+                        oplog.end(seq);
+                    else
+                        oplog.abort(seq);
+                }
+            } else {
+                addAllIndex(writer);
+            }
+            if (rebuild != null)
+                rebuild.record(captured);
 
             try {
                 // NOTE: if you want to maximize search performance,
@@ -189,8 +471,17 @@ public abstract class AbstractLuceneIndex {
                 logger.error(e1.getMessage(), e1);
             } finally {
                 if (_writer == null) {
-                    if (LuceneConfig.isWriterCache())
-                        writer.commit();
+                    IndexConfig config = LuceneConfig.getIndexConfig(indexPath);
+                    if (op != null) // 已写入操作日志，至少每秒提交一次
+                        commitFuture = GroupCommitter.get(indexPath).add(writer,
+                                config.getGroupCommitInterval() > 0 ? config.getGroupCommitInterval() : 1000,
+                                config.getGroupCommitMaxPending());
+                    else if (isResident(writer) && isRealtime() && config.getGroupCommitInterval() > 0
+                            && oplog == null)
+                        commitFuture = GroupCommitter.get(indexPath).add(writer, config.getGroupCommitInterval(),
+                                config.getGroupCommitMaxPending());
+                    else if (isResident(writer))
+                        commitIndexWriter(writer);
                     else
                         writer.close();
                 }
@@ -200,6 +491,36 @@ public abstract class AbstractLuceneIndex {
         }
     }
 
+    /**
+     * 在新目录中重建全部索引，完成后原子地切换indexPath指向的目录，重建期间查询一直使用原索引
+     */
+    private void addAllIndexBlueGreen(int maxNumSegments) throws Exception {
+        BlueGreenRebuild rebuild = BlueGreenRebuild.start(indexPath);
+        File generation = null;
+        IndexWriter writer = null;
+        boolean done = false;
+        try {
+            generation = IndexLocation.newGeneration(indexPath);
+            writer = new IndexWriter(openDirectory(indexPath, generation), newIndexWriterConfig(indexPath));
+            _writerPaths.put(writer, indexPath);
+            addAllIndex(writer);
+            if (maxNumSegments > 0) {
+                writer.forceMerge(maxNumSegments, true);
+            }
+            writer.commit(); // 切换时只需写入重建期间的少量操作
+            rebuild.switchTo(writer, generation);
+            done = true;
+        } finally {
+            rebuild.end();
+            if (!done && generation != null) {
+                if (writer != null)
+                    writer.rollback();
+                IndexLocation.delete(generation);
+            }
+        }
+        new SimpleQuery(indexPath).needReopen();
+    }
+
     /**
      * 设置优化的Segments数
      * @param maxNumSegments
@@ -208,9 +529,12 @@ public abstract class AbstractLuceneIndex {
     protected final void makeIndex(int maxNumSegments) throws LuceneIndexException {
         try {
             long t1 = System.currentTimeMillis();
+            long n1 = System.nanoTime();
 
             addAllIndex(maxNumSegments);
+            advanceGeneration();
 
+            metrics().getIndexLatency().record(System.nanoTime() - n1);
             if (_writer == null)
                 logger.info("===> 共计用时:{} 毫秒.", System.currentTimeMillis() - t1);
         } catch (Throwable e) {
@@ -234,7 +558,7 @@ public abstract class AbstractLuceneIndex {
         public void run() {
             try {
                 if (iw != null)
-                    iw.close();
+                    closeIndexWriter(iw);
             } catch (Exception e) {
                 log.error(e.getMessage(), e);
             }
@@ -1,6 +1,22 @@
 package com.smikevon.lucene.index;
 
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.lucene.index.IndexWriter;
 
@@ -34,55 +50,293 @@ public abstract class AbstractLuceneScheduleIndex<T> extends AbstractLuceneIndex
         boolean accept(E o);
     }
 
+    static final String WATERMARK = "schedule.watermark"; // 提交数据中保存增量水位的key
+
+    private static final int CHUNK = 256; // 流水线时每个任务的对象数
+    private int rebuildThreads = 0; // 为0则不使用流水线
+    private int prefetchPages = 2;
+
+    /**
+     * 设置全量重建使用流水线：由调用线程预取数据源(iterator，默认经getListAfter、getList分页)的下一页，
+     * getDocParam转换及addDocument在threads个线程上并行执行；已取出而未写入的对象最多约prefetchPages页，
+     * 写入跟不上时读取数据源会等待。threads大于1时getDocParam和filter须是线程安全的，
+     * 且文档在索引中的顺序与数据源的顺序不再一致
+     * @param threads 转换及写入的线程数，为1时只是读取数据源与写入重叠进行
+     * @param prefetchPages 预取的页数
+     */
+    public final void setRebuildThreads(int threads, int prefetchPages) {
+        this.rebuildThreads = Math.max(1, threads);
+        this.prefetchPages = Math.max(1, prefetchPages);
+    }
+
+    /**
+     * 设置全量重建是否采用蓝绿方式：在索引目录旁的新目录(indexPath.gen-时间戳)中写入全部文档，
+     * 完成后原子地切换indexPath指向的目录，查询在下一次reopen时改用新索引，重建期间查询一直使用原索引而不会看到空的或不完整的结果。
+     * 本进程中重建期间经实时写入类的写入照常写入原索引并被记录，切换前再写入新索引；不能记录的写入(如增量同步)等待切换后写入新索引。
+     * 切换时等待本进程中正在进行的写入完成后才关闭原writer。其它进程在重建期间的写入不会出现在新索引中
+     * @param blueGreen 为false(默认)则在原索引上deleteAll后重新写入
+     */
+    public final void setBlueGreen(boolean blueGreen) {
+        this.blueGreen = blueGreen;
+    }
+
     @Override
     protected final void addAllIndex(IndexWriter writer) throws Exception {
+        String watermark = newWatermark(); // 须在读取数据源之前取得，重建期间的变化留给下一次增量
         writer.deleteAll();
 
-        List<T> productlist = null;
-        int start = 0;
+        Iterator<T> it = iterator();
+        try {
+            if (rebuildThreads > 0) {
+                addAllIndexParallel(writer, it);
+                setWatermark(writer, watermark);
+                return;
+            }
+
+            int count = 0;
+            while (it.hasNext()) {
+                if (limitForDev > 0 && count >= limitForDev) {
+                    break;
+                }
+                T o = it.next();
+                if (filter != null) {
+                    if (!filter.accept(o)) {
+                        continue;
+                    }
+                }
+                DocParam[] doc = getDocParam(o);
+                if (doc != null) {
+                    for (DocParam d : doc)
+                        writer.addDocument(d.getDocument());
+                    metrics().addDocsIndexed(doc.length);
+                }
+                count++;
+            }
+            setWatermark(writer, watermark);
+        } catch (SourceException e) {
+            throw (Exception) e.getCause();
+        } finally {
+            if (it instanceof Closeable) {
+                ((Closeable) it).close();
+            }
+        }
+    }
+
+    private void addAllIndexParallel(final IndexWriter writer, Iterator<T> it) throws Exception {
         int size = LuceneConfig.getSchedulePagenum();
-        int count = 0;
-        breakFor: while (true) {
-            productlist = getList(start, size);
-            if (productlist.size() == 0)
-                break;
-            if (writer != null) {
-                if (productlist != null) {
-                    for (int i = 0, n = productlist.size(); i < n; i++) {
-                        if (limitForDev > 0 && count >= limitForDev) {
-                            break breakFor;
-                        }
-                        if (filter != null) {
-                            if (!filter.accept(productlist.get(i))) {
+        int capacity = Math.max(rebuildThreads, prefetchPages * ((size + CHUNK - 1) / CHUNK));
+        final BlockingQueue<List<T>> queue = new ArrayBlockingQueue<List<T>>(capacity);
+        final AtomicInteger count = new AtomicInteger();
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        final AtomicBoolean fetchDone = new AtomicBoolean();
+        final AtomicBoolean stopped = new AtomicBoolean(); // 出错或达到limitForDev
+
+        ExecutorService pool = Executors.newFixedThreadPool(rebuildThreads, new ThreadFactory() {
+            private final AtomicInteger n = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "schedule-rebuild-" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        for (int i = 0; i < rebuildThreads; i++) {
+            pool.execute(new Runnable() {
+                public void run() {
+                    try {
+                        while (!stopped.get()) {
+                            List<T> chunk = queue.poll(100, TimeUnit.MILLISECONDS);
+                            if (chunk == null) {
+                                if (fetchDone.get() && queue.isEmpty())
+                                    break;
                                 continue;
                             }
+                            for (T o : chunk) {
+                                if (!addObject(writer, o, count)) {
+                                    stopped.set(true);
+                                    break;
+                                }
+                            }
                         }
-                        DocParam[] doc = getDocParam(productlist.get(i));
-                        if (doc != null) {
-                            for (DocParam d : doc)
-                                writer.addDocument(d.getDocument());
-                        }
-                        count++;
+                    } catch (Throwable e) {
+                        error.compareAndSet(null, e);
+                        stopped.set(true);
                     }
                 }
+            });
+        }
+
+        try {
+            fetch: while (!stopped.get() && it.hasNext()) {
+                List<T> chunk = new ArrayList<T>(CHUNK);
+                while (chunk.size() < CHUNK && it.hasNext()) {
+                    chunk.add(it.next());
+                }
+                while (!queue.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                    if (stopped.get())
+                        break fetch;
+                }
             }
-            start += size;
+        } catch (Throwable e) {
+            error.compareAndSet(null, e instanceof SourceException ? e.getCause() : e);
+            stopped.set(true);
+        } finally {
+            fetchDone.set(true);
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+
+        Throwable e = error.get();
+        if (e instanceof Exception)
+            throw (Exception) e;
+        else if (e != null)
+            throw new LuceneIndexException(e);
+    }
+
+    /**
+     * @return 达到limitForDev时返回false
+     */
+    private boolean addObject(IndexWriter writer, T o, AtomicInteger count) throws Exception {
+        if (filter != null && !filter.accept(o)) {
+            return true;
+        }
+        if (limitForDev > 0 && count.getAndIncrement() >= limitForDev) {
+            return false;
         }
+        DocParam[] doc = getDocParam(o);
+        if (doc != null) {
+            for (DocParam d : doc)
+                writer.addDocument(d.getDocument());
+            metrics().addDocsIndexed(doc.length);
+        }
+        return true;
     }
 
+    /**
+     * 全量重建，完成后forceMerge的segment数由LuceneConfig.getMergeConfig(indexPath)决定，默认为1
+     */
     public final void makeIndex() throws LuceneIndexException {
-        makeIndex(1);
+        makeIndex(LuceneConfig.getMergeConfig(indexPath).getForceMergeSegments());
+    }
+
+    static void setWatermark(IndexWriter writer, String watermark) {
+        Map<String, String> data = new HashMap<String, String>(writer.getCommitData());
+        data.put(WATERMARK, watermark);
+        writer.setCommitData(data);
+    }
+
+    /**
+     * 本次同步的水位，在读取数据源之前调用，下一次增量以它作为AbstractLuceneDeltaIndex.getChangedListAfter和getDeletedKeys的参数。
+     * 默认为当前时间的毫秒数；数据源的修改时间以数据库时间为准时应改为返回数据库的当前时间，或减去一个安全余量
+     * @return 水位，保存在索引的提交数据中
+     */
+    protected String newWatermark() throws Exception {
+        return String.valueOf(System.currentTimeMillis());
     }
 
     /**
-     * 由扩展类实现,该方法第一次调用会传参数start=0，size=1000，第二次start=1000,size=1000，第三次start=
-     * 2000,size=1000... 一直调用到返回的集合为空
+     * 由扩展类实现,作为全量重建的数据源。该方法第一次调用会传参数start=0，size=1000，第二次start=1000,size=1000，第三次start=
+     * 2000,size=1000... 一直调用到返回的集合为空。数据量大时偏移分页越往后越慢，可另外覆盖getListAfter或iterator，
+     * 此时重建不再调用该方法
      * @param start 查询起始
      * @param size 查询个数
      * @return 泛型对象列表
      */
     protected abstract List<T> getList(int start, int size) throws Exception;
 
+    /**
+     * 按游标(keyset)分页取数据，每页的查询代价与位置无关，例如
+     * <p>select ... where id > #{last.id} order by id limit #{size}</p>
+     * 一直调用到返回的集合为空。默认调用getList(start, size)
+     * @param last 上一页的最后一个对象，第一次调用为null
+     * @param start 已取出的对象数，即偏移分页的起始位置
+     * @param size 查询个数
+     * @return 排在last之后的至多size个对象
+     */
+    protected List<T> getListAfter(T last, int start, int size) throws Exception {
+        return getList(start, size);
+    }
+
+    /**
+     * 以迭代器作为数据源，例如流式读取的数据库游标，迭代器实现了Closeable时重建结束后会调用close。
+     * 默认按LuceneConfig.getSchedulePagenum()逐页调用getListAfter
+     * @return 全部待索引的对象
+     */
+    protected Iterator<T> iterator() throws Exception {
+        return new PageIterator<T>() {
+            @Override
+            List<T> nextPage(T last, int start, int size) throws Exception {
+                return getListAfter(last, start, size);
+            }
+        };
+    }
+
+    /**
+     * @return o是否通过setFilterForDev设置的过滤
+     */
+    final boolean accept(T o) {
+        return filter == null || filter.accept(o);
+    }
+
+    /**
+     * 包装数据源在迭代过程中抛出的受检异常
+     */
+    static class SourceException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        SourceException(Exception cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * 按LuceneConfig.getSchedulePagenum()逐页取数据的迭代器，一直取到返回的集合为空
+     */
+    abstract static class PageIterator<T> implements Iterator<T> {
+        private final int size = LuceneConfig.getSchedulePagenum();
+        private List<T> page = Collections.emptyList();
+        private int pos;
+        private int start;
+        private boolean done;
+
+        public boolean hasNext() {
+            if (pos < page.size())
+                return true;
+            if (done)
+                return false;
+            try {
+                T last = page.isEmpty() ? null : page.get(page.size() - 1);
+                List<T> next = nextPage(last, start, size);
+                if (next == null || next.size() == 0) {
+                    done = true;
+                    return false;
+                }
+                start += size;
+                page = next;
+                pos = 0;
+                return true;
+            } catch (Exception e) {
+                throw new SourceException(e);
+            }
+        }
+
+        public T next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return page.get(pos++);
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * @param last 上一页的最后一个对象，第一次调用为null
+         * @param start 已取出的对象数
+         */
+        abstract List<T> nextPage(T last, int start, int size) throws Exception;
+    }
+
     /**
      * 由扩展类实现
      * @param obj
@@ -0,0 +1,145 @@
+package com.smikevon.lucene.index;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.lucene.index.IndexWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ * 本进程中正在进行的蓝绿重建。写入indexPath时持有共享锁(beginWrite、endWrite)，重建期间的写入照常写入原索引，
+ * 同时记录其操作；切换时在互斥锁下把记录的操作写入新索引，再切换目录并关闭原writer，此时没有正在进行的写入。
+ * 不能记录为操作的写入(批量写入、含Reader等属性的文档、增量同步)等待重建结束后写入新索引
+ *
+ * <p>只协调本进程内的写入，其它进程在重建期间写入原目录的文档不会出现在新索引中</p>
+ *
+ */
+class BlueGreenRebuild {
+    private static Logger log = LoggerFactory.getLogger(BlueGreenRebuild.class);
+    private static final Map<String, ReentrantReadWriteLock> locks = new ConcurrentHashMap<String, ReentrantReadWriteLock>();
+    private static final ConcurrentMap<String, BlueGreenRebuild> rebuilds = new ConcurrentHashMap<String, BlueGreenRebuild>();
+
+    private final String indexPath;
+    private final List<ByteBuffer> ops = new ArrayList<ByteBuffer>();
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private BlueGreenRebuild(String indexPath) {
+        this.indexPath = indexPath;
+    }
+
+    private static ReentrantReadWriteLock lock(String indexPath) {
+        ReentrantReadWriteLock lock = locks.get(indexPath);
+        if (lock == null) {
+            synchronized (locks) {
+                lock = locks.get(indexPath);
+                if (lock == null) {
+                    lock = new ReentrantReadWriteLock();
+                    locks.put(indexPath, lock);
+                }
+            }
+        }
+        return lock;
+    }
+
+    /**
+     * @return indexPath是否正在蓝绿重建，用于判断写入是否需要准备操作记录
+     */
+    static boolean inProgress(String indexPath) {
+        return rebuilds.containsKey(indexPath);
+    }
+
+    /**
+     * 开始一次写入，持有共享锁直到调用endWrite。正在重建而op为null时先等待重建结束
+     * @param op 本次写入的操作，不能记录时为null
+     * @return 正在进行的重建，写入成功后须调用其record；没有重建时返回null
+     */
+    static BlueGreenRebuild beginWrite(String indexPath, OperationLog.Op op) throws InterruptedException {
+        ReentrantReadWriteLock lock = lock(indexPath);
+        while (true) {
+            lock.readLock().lock();
+            BlueGreenRebuild rebuild = rebuilds.get(indexPath);
+            if (rebuild == null || op != null) {
+                return rebuild;
+            }
+            lock.readLock().unlock();
+            rebuild.done.await();
+        }
+    }
+
+    static void endWrite(String indexPath) {
+        lock(indexPath).readLock().unlock();
+    }
+
+    /**
+     * 开始重建，之后的写入都会被记录
+     */
+    static BlueGreenRebuild start(String indexPath) throws LuceneIndexException {
+        BlueGreenRebuild rebuild = new BlueGreenRebuild(indexPath);
+        ReentrantReadWriteLock lock = lock(indexPath);
+        lock.writeLock().lock(); // 等待已开始的写入完成，它们的变化由数据源负责
+        try {
+            if (rebuilds.putIfAbsent(indexPath, rebuild) != null) {
+                throw new LuceneIndexException(indexPath + " 正在蓝绿重建");
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return rebuild;
+    }
+
+    /**
+     * 记录一次已成功写入原索引的操作，立即编码，之后对文档的修改(如复用Field)不影响记录
+     */
+    synchronized void record(OperationLog.Op op) throws IOException {
+        ops.add(op.encode());
+    }
+
+    /**
+     * 在互斥锁下(期间写入等待)将记录的操作写入新索引并关闭writer，切换indexPath到generation，再关闭原writer
+     */
+    void switchTo(IndexWriter writer, File generation) throws IOException {
+        ReentrantReadWriteLock lock = lock(indexPath);
+        lock.writeLock().lock();
+        try {
+            int n;
+            synchronized (this) {
+                n = ops.size();
+                for (ByteBuffer record : ops) {
+                    DataInputStream in = new DataInputStream(new ByteArrayInputStream(record.array(),
+                            record.arrayOffset(), record.limit()));
+                    OperationLog.read(in).apply(writer, indexPath);
+                }
+            }
+            writer.close();
+            IndexLocation.switchTo(indexPath, generation);
+            try {
+                AbstractLuceneIndex.closeIndexWriter(indexPath);
+            } catch (IOException e) {
+                log.error(indexPath + " close writer of previous generation failed", e); // 已切换，不影响新索引
+            }
+            log.info("{} switched to {}, {} writes during rebuild re-applied", new Object[] { indexPath, generation, n });
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 重建结束(成功或失败)，唤醒等待的写入
+     */
+    void end() {
+        rebuilds.remove(indexPath, this);
+        done.countDown();
+    }
+}
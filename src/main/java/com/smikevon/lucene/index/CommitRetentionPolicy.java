@@ -0,0 +1,43 @@
+package com.smikevon.lucene.index;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexDeletionPolicy;
+
+/**
+ *
+ * 被新的commit覆盖后仍保留一段时间的删除策略，使正在复制该commit的replica(见IndexReplica)不会遇到文件被删除，
+ * 保留时间之外的行为与lucene默认的KeepOnlyLastCommitDeletionPolicy相同
+ *
+ */
+class CommitRetentionPolicy extends IndexDeletionPolicy {
+    private final long retentionMillis;
+    private final Map<Long, Long> superseded = new ConcurrentHashMap<Long, Long>(); // commit的generation -> 被覆盖的时间
+
+    CommitRetentionPolicy(long retentionMillis) {
+        this.retentionMillis = retentionMillis;
+    }
+
+    @Override
+    public void onInit(List<? extends IndexCommit> commits) {
+        onCommit(commits);
+    }
+
+    @Override
+    public void onCommit(List<? extends IndexCommit> commits) {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < commits.size() - 1; i++) { // 最后一个为最新的commit
+            IndexCommit commit = commits.get(i);
+            Long since = superseded.get(commit.getGeneration());
+            if (since == null) {
+                superseded.put(commit.getGeneration(), now);
+            } else if (now - since > retentionMillis) {
+                commit.delete();
+                superseded.remove(commit.getGeneration());
+            }
+        }
+    }
+}
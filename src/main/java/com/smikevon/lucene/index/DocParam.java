@@ -2,6 +2,7 @@ package com.smikevon.lucene.index;
 
 import java.math.BigDecimal;
 import java.util.Date;
+import java.util.List;
 
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.DoubleField;
@@ -14,14 +15,125 @@ import org.apache.lucene.index.IndexableField;
 
 /**
  * 对单一文档进行操作的类
+ *
+ * <p>批量写入大量文档时可调用setReuseFields(true)：第一个文档的Field对象创建后保留，之后每个文档调用reset()，
+ * 再按相同的顺序添加属性时只替换Field的值，不再创建Document、Field及FieldType对象</p>
  * @author huangbin
  */
 public class DocParam {
+    /** 索引、保存、分词，不保存norms，只索引文档号 */
+    public static final FieldType TYPE_STORED_TOKENIZED = newType(true, true, true);
+    /** 索引、保存、不分词，不保存norms，只索引文档号 */
+    public static final FieldType TYPE_STORED_NOT_TOKENIZED = newType(true, true, false);
+    /** 索引、不保存、分词，不保存norms，只索引文档号 */
+    public static final FieldType TYPE_NOT_STORED_TOKENIZED = newType(true, false, true);
+    /** 索引、不保存、不分词，不保存norms，只索引文档号 */
+    public static final FieldType TYPE_NOT_STORED_NOT_TOKENIZED = newType(true, false, false);
+    /** 只保存不索引 */
+    public static final FieldType TYPE_STORED_ONLY = newType(false, true, false);
+
     protected Document doc = new Document();
+    private boolean reuseFields;
+    private int slot; // 复用模式下当前文档已添加的属性数
 
     public DocParam() {
     }
 
+    private static FieldType newType(boolean indexed, boolean stored, boolean tokenized) {
+        FieldType type = new FieldType();
+        type.setIndexed(indexed);
+        type.setOmitNorms(true);
+        type.setIndexOptions(IndexOptions.DOCS_ONLY);
+        type.setStored(stored);
+        type.setTokenized(tokenized);
+        type.freeze();
+        return type;
+    }
+
+    /**
+     * 设置是否复用Field对象，须在添加属性之前调用。复用时每个文档写入索引后须调用reset()，
+     * 且不能保留getDocument()返回的Document，因为其中的值会被下一个文档覆盖
+     * @param reuseFields 是否复用
+     */
+    public void setReuseFields(boolean reuseFields) {
+        this.reuseFields = reuseFields;
+        this.slot = 0;
+        this.doc = new Document();
+    }
+
+    public boolean isReuseFields() {
+        return reuseFields;
+    }
+
+    /**
+     * 清空属性，开始下一个文档。复用模式下只重置位置，之后添加的属性依次复用已有的Field
+     */
+    public void reset() {
+        if (reuseFields) {
+            slot = 0;
+        } else {
+            doc = new Document();
+        }
+    }
+
+    /**
+     * @return 复用模式下位置slot处名称、类型都相同的Field，没有则返回null
+     */
+    private Field reusable(String propName, FieldType type) {
+        if (!reuseFields)
+            return null;
+        List<IndexableField> fields = doc.getFields();
+        if (slot < fields.size()) {
+            IndexableField f = fields.get(slot);
+            if (f.fieldType() == type && f instanceof Field && f.name().equals(propName)) {
+                slot++;
+                return (Field) f;
+            }
+        }
+        return null;
+    }
+
+    private void append(IndexableField field) {
+        if (reuseFields) {
+            List<IndexableField> fields = doc.getFields();
+            if (slot < fields.size()) {
+                fields.set(slot, field);
+            } else {
+                fields.add(field);
+            }
+            slot++;
+        } else {
+            doc.add(field);
+        }
+    }
+
+    private void addString(String propName, String value, FieldType type) {
+        Field f = reusable(propName, type);
+        if (f != null) {
+            f.setStringValue(value);
+        } else {
+            append(new Field(propName, value, type));
+        }
+    }
+
+    private void addLong(String propName, long value, FieldType type) {
+        Field f = reusable(propName, type);
+        if (f != null) {
+            f.setLongValue(value);
+        } else {
+            append(new LongField(propName, value, type));
+        }
+    }
+
+    private void addDouble(String propName, double value, FieldType type) {
+        Field f = reusable(propName, type);
+        if (f != null) {
+            f.setDoubleValue(value);
+        } else {
+            append(new DoubleField(propName, value, type));
+        }
+    }
+
     public static boolean isDouble(Number value) {
         if (value.getClass().equals(Float.class) || value.getClass().equals(Double.class)
                 || value.getClass().equals(BigDecimal.class)) {
@@ -40,7 +152,7 @@ public class DocParam {
         if (value == null) {
             return;
         }
-        this.doc.add(new Field(propName, value, type));
+        addString(propName, value, type);
     }
 
     /**
@@ -52,7 +164,7 @@ public class DocParam {
         if (value == null) {
             return;
         }
-        this.doc.add(new StringField(propName, value, Field.Store.YES));
+        addString(propName, value, StringField.TYPE_STORED);
     }
 
     /**
@@ -64,14 +176,7 @@ public class DocParam {
         if (value == null) {
             return;
         }
-        FieldType type = new FieldType();
-        type.setIndexed(true);
-        type.setOmitNorms(true);
-        type.setIndexOptions(IndexOptions.DOCS_ONLY);
-        type.setStored(true);
-        type.setTokenized(tokenized);
-        type.freeze();
-        this.doc.add(new Field(propName, value, type));
+        addString(propName, value, tokenized ? TYPE_STORED_TOKENIZED : TYPE_STORED_NOT_TOKENIZED);
     }
 
     /**
@@ -103,9 +208,9 @@ public class DocParam {
 //			index.freeze();
 //			this.doc.add(new DoubleField(propName+"#double", value.doubleValue(), index));
 
-            this.doc.add(new DoubleField(propName, value.doubleValue(), Field.Store.YES));
+            addDouble(propName, value.doubleValue(), DoubleField.TYPE_STORED);
         } else {
-            this.doc.add(new LongField(propName, value.longValue(), Field.Store.YES));
+            addLong(propName, value.longValue(), LongField.TYPE_STORED);
         }
     }
 
@@ -118,7 +223,7 @@ public class DocParam {
         if (value == null) {
             return;
         }
-        this.doc.add(new LongField(propName, value.getTime(), Field.Store.YES));
+        addLong(propName, value.getTime(), LongField.TYPE_STORED);
     }
 
     /**
@@ -130,7 +235,7 @@ public class DocParam {
         if (value == null) {
             return;
         }
-        this.doc.add(new StringField(propName, value, Field.Store.NO));
+        addString(propName, value, StringField.TYPE_NOT_STORED);
     }
 
     /**
@@ -142,13 +247,7 @@ public class DocParam {
         if (value == null) {
             return;
         }
-        FieldType index = new FieldType();
-        index.setIndexed(true);
-        index.setOmitNorms(true);
-        index.setIndexOptions(IndexOptions.DOCS_ONLY);
-        index.setTokenized(tokenized);
-        index.freeze();
-        this.doc.add(new Field(propName, value, index));
+        addString(propName, value, tokenized ? TYPE_NOT_STORED_TOKENIZED : TYPE_NOT_STORED_NOT_TOKENIZED);
     }
 
     /**
@@ -170,9 +269,9 @@ public class DocParam {
 //			index.freeze();
 //			this.doc.add(new DoubleField(propName+"#double", value.doubleValue(), index));
 
-            this.doc.add(new DoubleField(propName, value.doubleValue(), Field.Store.NO));
+            addDouble(propName, value.doubleValue(), DoubleField.TYPE_NOT_STORED);
         } else {
-            this.doc.add(new LongField(propName, value.longValue(), Field.Store.NO));
+            addLong(propName, value.longValue(), LongField.TYPE_NOT_STORED);
         }
     }
 
@@ -185,7 +284,7 @@ public class DocParam {
         if (value == null) {
             return;
         }
-        this.doc.add(new LongField(propName, value.getTime(), Field.Store.NO));
+        addLong(propName, value.getTime(), LongField.TYPE_NOT_STORED);
     }
 
     /**
@@ -194,21 +293,20 @@ public class DocParam {
      * @param value
      */
     public void store(String propName, String value) {
-        FieldType type = new FieldType();
-        type.setIndexed(false);
-        type.setOmitNorms(true);
-        type.setIndexOptions(IndexOptions.DOCS_ONLY);
-        type.setStored(true);
-        type.setTokenized(false);
-        type.freeze();
-        add(propName, value, type);
+        add(propName, value, TYPE_STORED_ONLY);
     }
 
     public void addField(IndexableField field) {
-        getDocument().add(field);
+        append(field);
     }
 
     public Document getDocument() {
+        if (reuseFields) { // 去掉上一个文档多出的属性
+            List<IndexableField> fields = doc.getFields();
+            if (slot < fields.size()) {
+                fields.subList(slot, fields.size()).clear();
+            }
+        }
         return this.doc;
     }
 }
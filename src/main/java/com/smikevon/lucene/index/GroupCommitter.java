@@ -0,0 +1,174 @@
+package com.smikevon.lucene.index;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ * 实时写入的合并提交：写入立即进入IndexWriter，提交由后台线程在第一次未提交的写入之后interval毫秒，
+ * 或未提交的写入达到maxPending次时执行，一次commit覆盖期间的全部写入。
+ * 每次写入得到覆盖它的那次commit的Future，需要确认已落盘时调用get()等待
+ *
+ * <p>writer正常关闭时close会提交全部写入，之后的commit视为成功；writer被回滚时覆盖其写入的commit失败</p>
+ *
+ */
+class GroupCommitter {
+    private static Logger log = LoggerFactory.getLogger(GroupCommitter.class);
+    private static final Map<String, GroupCommitter> committers = new ConcurrentHashMap<String, GroupCommitter>();
+    private static ScheduledExecutorService executor;
+    private static final Map<IndexWriter, Boolean> closed = Collections
+            .synchronizedMap(new WeakHashMap<IndexWriter, Boolean>());
+
+    private final String indexPath;
+    private Commit pending; // 下一次commit，为null表示没有未提交的写入
+    private IndexWriter pendingWriter;
+    private int pendingCount;
+    private boolean flushRequested;
+
+    private GroupCommitter(String indexPath) {
+        this.indexPath = indexPath;
+    }
+
+    static synchronized GroupCommitter get(String indexPath) {
+        GroupCommitter committer = committers.get(indexPath);
+        if (committer == null) {
+            if (executor == null) {
+                executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "group-commit");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+            }
+            committer = new GroupCommitter(indexPath);
+            committers.put(indexPath, committer);
+        }
+        return committer;
+    }
+
+    /**
+     * 登记一次已写入writer的操作
+     * @param interval 第一次未提交的写入之后最多等待的毫秒数
+     * @param maxPending 未提交的写入达到该次数时立即提交，为0则只按时间
+     * @return 覆盖本次写入的commit
+     */
+    synchronized Future<Void> add(final IndexWriter writer, long interval, int maxPending) {
+        if (pending != null && pendingWriter != writer) {
+            // 缓存的writer已更换，原writer上的写入单独提交
+            executor.execute(pending);
+            pending = null;
+            pendingWriter = null;
+            pendingCount = 0;
+            flushRequested = false;
+        }
+        if (pending == null) {
+            pendingWriter = writer;
+            pending = new Commit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    try {
+                        AbstractLuceneIndex.commitIndexWriter(writer);
+                    } catch (AlreadyClosedException e) {
+                        if (!closed.containsKey(writer)) // 被回滚，未提交的写入已丢弃
+                            throw new IOException(indexPath + " writer closed without commit", e);
+                        // 正常关闭(例如蓝绿切换)，close时已提交
+                    } catch (Exception e) {
+                        log.error(indexPath + " group commit failed", e);
+                        throw e;
+                    }
+                    return null;
+                }
+            });
+            final Commit task = pending;
+            executor.schedule(new Runnable() {
+                public void run() {
+                    flush(task);
+                }
+            }, interval, TimeUnit.MILLISECONDS);
+        }
+        final Commit future = pending;
+        if (++pendingCount >= maxPending && maxPending > 0 && !flushRequested) {
+            flushRequested = true;
+            executor.execute(new Runnable() {
+                public void run() {
+                    flush(future);
+                }
+            });
+        }
+        return future;
+    }
+
+    /**
+     * 执行task这次commit，之后的写入由下一次commit覆盖。task已因达到maxPending提前执行时不做任何事，
+     * 不会提前提交之后的一次
+     */
+    private void flush(Commit task) {
+        synchronized (this) {
+            if (pending != task)
+                return;
+            pending = null;
+            pendingWriter = null;
+            pendingCount = 0;
+            flushRequested = false;
+        }
+        task.run();
+    }
+
+    /**
+     * writer正常关闭(close会提交全部写入)之前调用，之后覆盖其写入的commit遇到writer已关闭时视为成功
+     */
+    static void closing(IndexWriter writer) {
+        closed.put(writer, Boolean.TRUE);
+    }
+
+    /**
+     * writer被回滚(如写入leader放弃writer)时调用，覆盖其未提交写入的commit以cause失败
+     */
+    static void fail(IndexWriter writer, Throwable cause) {
+        GroupCommitter[] all;
+        synchronized (GroupCommitter.class) {
+            all = committers.values().toArray(new GroupCommitter[0]);
+        }
+        for (GroupCommitter committer : all) {
+            Commit task;
+            synchronized (committer) {
+                if (committer.pendingWriter != writer)
+                    continue;
+                task = committer.pending;
+                committer.pending = null;
+                committer.pendingWriter = null;
+                committer.pendingCount = 0;
+                committer.flushRequested = false;
+            }
+            task.fail(cause);
+        }
+    }
+
+    /**
+     * 一次commit，writer被回滚时不执行而直接失败
+     */
+    private static class Commit extends FutureTask<Void> {
+        Commit(Callable<Void> callable) {
+            super(callable);
+        }
+
+        void fail(Throwable cause) {
+            setException(cause);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.smikevon.lucene.index;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ * 逻辑索引位置(indexPath)与实际目录的对应关系，用于蓝绿全量重建
+ *
+ * <p>重建时在indexPath旁新建目录indexPath.gen-时间戳并写入全部文档，完成后改写指针文件indexPath.current
+ * (先写临时文件再rename，切换是原子的)，之后打开的reader和writer都使用新目录。没有指针文件时实际目录就是indexPath。
+ * 旧目录(包括最初的indexPath目录)保留一代，供其它进程中仍在使用的reader读完，再下一次重建时删除。
+ * 指针文件的修改时间变化时、或距上次读取超过RECHECK_INTERVAL时重新读取其内容，修改时间精度较粗或NFS缓存文件属性时也不会错过切换</p>
+ *
+ */
+public class IndexLocation {
+    private static Logger log = LoggerFactory.getLogger(IndexLocation.class);
+    static final String GENERATION = ".gen-";
+    static final String POINTER = ".current";
+    private static final long RECHECK_INTERVAL = 1000L; // 修改时间不变时重新读取指针文件的间隔，单位为毫秒(ms)
+
+    private static final Map<String, Object[]> resolved = new ConcurrentHashMap<String, Object[]>();
+
+    private IndexLocation() {
+    }
+
+    private static File pointer(String indexPath) {
+        return new File(indexPath + POINTER);
+    }
+
+    /**
+     * @param indexPath 逻辑索引位置
+     * @return 当前使用的实际目录
+     */
+    public static String resolve(String indexPath) {
+        File pointer = pointer(indexPath);
+        long modified = pointer.lastModified(); // 不存在时为0
+        long now = System.currentTimeMillis();
+        Object[] cached = resolved.get(indexPath);
+        if (cached != null && (Long) cached[0] == modified && now - (Long) cached[2] < RECHECK_INTERVAL) {
+            return (String) cached[1];
+        }
+        String path = indexPath;
+        if (modified != 0) {
+            try {
+                String name = read(pointer).trim();
+                if (name.length() > 0) {
+                    path = new File(new File(indexPath).getAbsoluteFile().getParentFile(), name).getPath();
+                }
+            } catch (IOException e) {
+                log.warn("read " + pointer + " failed, use " + indexPath, e);
+            }
+        }
+        resolved.put(indexPath, new Object[] { modified, path, now });
+        return path;
+    }
+
+    /**
+     * @return 新建的空目录，作为indexPath的下一代
+     */
+    static File newGeneration(String indexPath) {
+        File base = new File(indexPath).getAbsoluteFile();
+        File dir;
+        long stamp = System.currentTimeMillis();
+        do {
+            dir = new File(base.getParentFile(), base.getName() + GENERATION + (stamp++));
+        } while (dir.exists());
+        dir.mkdirs();
+        return dir;
+    }
+
+    /**
+     * 原子地把indexPath指向generation，并删除除当前和上一代之外的旧目录
+     */
+    static void switchTo(String indexPath, File generation) throws IOException {
+        resolved.remove(indexPath); // 按指针文件的当前内容确定上一代
+        String previous = new File(resolve(indexPath)).getAbsoluteFile().getName();
+        File pointer = pointer(indexPath);
+        File tmp = new File(pointer.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write(generation.getName().getBytes("UTF-8"));
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(pointer)) {
+            throw new IOException("rename " + tmp + " to " + pointer + " failed");
+        }
+        resolved.remove(indexPath);
+        log.info("{} switched to {}", indexPath, generation);
+
+        File base = new File(indexPath).getAbsoluteFile();
+        File[] siblings = base.getParentFile().listFiles();
+        if (siblings == null)
+            return;
+        for (File f : siblings) {
+            String name = f.getName();
+            if (name.endsWith(OperationLog.SUFFIX)) // 操作日志与所属的目录一起删除
+                name = name.substring(0, name.length() - OperationLog.SUFFIX.length());
+            boolean owned = name.equals(base.getName()) || name.startsWith(base.getName() + GENERATION);
+            if (f.isDirectory() && owned && !name.equals(generation.getName()) && !name.equals(previous)) {
+                delete(f);
+            }
+        }
+    }
+
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        if (!file.delete()) {
+            log.warn("delete {} failed", file);
+        }
+    }
+
+    private static String read(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            byte[] buf = new byte[(int) file.length()];
+            int n = 0;
+            while (n < buf.length) {
+                int r = in.read(buf, n, buf.length - n);
+                if (r < 0)
+                    break;
+                n += r;
+            }
+            return new String(buf, 0, n, "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+}
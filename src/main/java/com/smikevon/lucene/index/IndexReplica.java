@@ -0,0 +1,231 @@
+package com.smikevon.lucene.index;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.smikevon.lucene.IndexConfig;
+import com.smikevon.lucene.LuceneConfig;
+import com.smikevon.lucene.search.SimpleQuery;
+
+/**
+ *
+ * 索引的本地只读副本：后台线程定期读取writer所在目录(如NFS)最新的commit，只复制本地还没有的segment文件，
+ * 校验后最后复制segments_N，reopen时才会看到新的commit，不会读到写了一半的文件。查询打开本地目录，不再跨网络读取
+ *
+ * <p>副本保存在IndexConfig.setReplica指定的目录下与实际目录同名的子目录中，蓝绿切换后复制到新的子目录，原子目录保留一代。
+ * writer端应设置IndexConfig.setCommitRetention，使被覆盖的commit在复制完成前不被删除</p>
+ *
+ */
+public class IndexReplica implements Runnable {
+    private static Logger log = LoggerFactory.getLogger(IndexReplica.class);
+    private static final Map<String, IndexReplica> replicas = new ConcurrentHashMap<String, IndexReplica>();
+    private static ScheduledExecutorService executor;
+
+    private final String indexPath;
+    private final File replicaPath;
+    private volatile String localDir; // 最近一次复制完成的本地目录
+    private long generation = -1;
+    private Set<String> files = Collections.emptySet(); // 本地当前commit的文件
+    private Set<String> previousFiles = Collections.emptySet();
+
+    private IndexReplica(String indexPath, File replicaPath) {
+        this.indexPath = indexPath;
+        this.replicaPath = replicaPath;
+    }
+
+    /**
+     * 第一次调用时复制一次并启动后台复制
+     * @param indexPath 逻辑索引位置
+     * @return 查询使用的本地目录，还没有复制成功时返回writer所在的实际目录
+     */
+    public static String resolve(String indexPath) {
+        IndexReplica replica = replicas.get(indexPath);
+        if (replica == null) {
+            synchronized (replicas) {
+                replica = replicas.get(indexPath);
+                if (replica == null) {
+                    IndexConfig config = LuceneConfig.getIndexConfig(indexPath);
+                    replica = new IndexReplica(indexPath, new File(config.getReplicaPath()));
+                    replica.run();
+                    if (executor == null) {
+                        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                            public Thread newThread(Runnable r) {
+                                Thread t = new Thread(r, "index-replica");
+                                t.setDaemon(true);
+                                return t;
+                            }
+                        });
+                    }
+                    executor.scheduleWithFixedDelay(replica, config.getReplicaInterval(),
+                            config.getReplicaInterval(), TimeUnit.MILLISECONDS);
+                    replicas.put(indexPath, replica);
+                }
+            }
+        }
+        String dir = replica.localDir;
+        return dir != null ? dir : IndexLocation.resolve(indexPath);
+    }
+
+    public void run() {
+        try {
+            if (sync()) {
+                new SimpleQuery(indexPath).needReopen();
+            }
+        } catch (Throwable e) {
+            // 复制期间源文件被删除等，下一次重新读取最新的commit
+            log.warn(indexPath + " replicate failed, will retry", e);
+        }
+    }
+
+    /**
+     * @return 是否复制了新的commit
+     */
+    synchronized boolean sync() throws IOException {
+        String source = IndexLocation.resolve(indexPath);
+        File local = new File(replicaPath, new File(source).getName());
+        Directory dir = FSDirectory.open(new File(source));
+        SegmentInfos infos = new SegmentInfos();
+        Collection<String> names;
+        try {
+            infos.read(dir);
+            names = infos.files(dir, false);
+        } finally {
+            dir.close();
+        }
+        if (infos.getGeneration() == generation && local.getPath().equals(localDir)) {
+            return false;
+        }
+        if (!local.exists() && !local.mkdirs()) {
+            throw new IOException("Cannot create directory: " + local);
+        }
+
+        long t1 = System.currentTimeMillis();
+        String segmentsFile = infos.getSegmentsFileName();
+        int copied = 0;
+        long bytes = 0;
+        for (String name : names) {
+            File src = new File(source, name);
+            File dst = new File(local, name);
+            if (dst.exists() && dst.length() == src.length()) {
+                continue; // segment文件不会改写，已复制过
+            }
+            bytes += copy(src, dst);
+            copied++;
+        }
+        copy(new File(source, segmentsFile), new File(local, segmentsFile)); // 最后复制，reopen才能看到新的commit
+
+        boolean switched = !local.getPath().equals(localDir);
+        Set<String> current = new HashSet<String>(names);
+        current.add(segmentsFile);
+        previousFiles = switched ? Collections.<String> emptySet() : files;
+        files = current;
+        generation = infos.getGeneration();
+        String previousDir = localDir;
+        localDir = local.getPath();
+
+        // 保留当前和上一个commit的文件，供仍在使用上一个reader的查询读完
+        String[] existing = local.list();
+        if (existing != null) {
+            for (String name : existing) {
+                if (!files.contains(name) && !previousFiles.contains(name)) {
+                    new File(local, name).delete();
+                }
+            }
+        }
+        if (switched) {
+            removeOldDirs(previousDir);
+        }
+        log.info("{} replicated {} to {}: {} files, {} bytes, cost {} ms.", new Object[] { indexPath, segmentsFile,
+                local, copied, bytes, System.currentTimeMillis() - t1 });
+        return true;
+    }
+
+    /**
+     * 删除replicaPath下当前及上一个本地目录以外的目录
+     */
+    private void removeOldDirs(String previousDir) {
+        File[] dirs = replicaPath.listFiles();
+        if (dirs == null)
+            return;
+        for (File d : dirs) {
+            if (d.isDirectory() && !d.getPath().equals(localDir) && !d.getPath().equals(previousDir)) {
+                IndexLocation.delete(d);
+            }
+        }
+    }
+
+    /**
+     * 复制到临时文件并校验长度和CRC后rename
+     * @return 复制的字节数
+     */
+    private static long copy(File src, File dst) throws IOException {
+        File tmp = new File(dst.getPath() + ".tmp");
+        long expected = src.length();
+        CRC32 crc = new CRC32();
+        long length = 0;
+        InputStream in = new FileInputStream(src);
+        try {
+            FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                byte[] buf = new byte[64 * 1024];
+                int n;
+                while ((n = in.read(buf)) > 0) {
+                    out.write(buf, 0, n);
+                    crc.update(buf, 0, n);
+                    length += n;
+                }
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        if (length != expected || checksum(tmp) != crc.getValue()) {
+            tmp.delete();
+            throw new IOException("verify " + dst + " failed, length " + length + " expected " + expected);
+        }
+        if (dst.exists() && !dst.delete()) {
+            throw new IOException("Cannot delete " + dst);
+        }
+        if (!tmp.renameTo(dst)) {
+            throw new IOException("rename " + tmp + " to " + dst + " failed");
+        }
+        return length;
+    }
+
+    private static long checksum(File f) throws IOException {
+        CRC32 crc = new CRC32();
+        InputStream in = new FileInputStream(f);
+        try {
+            byte[] buf = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                crc.update(buf, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return crc.getValue();
+    }
+}
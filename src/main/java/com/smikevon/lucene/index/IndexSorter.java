@@ -0,0 +1,76 @@
+package com.smikevon.lucene.index;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.sorter.Sorter;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.SortField;
+
+/**
+ *
+ * 按数字属性对segment内的文档排序的Sorter，与SortingMergePolicy配合使索引合并后的segment按该属性有序
+ *
+ * <p>排序值与查询时同类型的SortField一样从FieldCache读取，因此DocParam中以add/index方法加入的数字、日期属性都可以使用，
+ * 缺失值按0处理</p>
+ *
+ */
+public class IndexSorter extends Sorter {
+    private final SortField sortField;
+
+    /**
+     * @param sortField 排序属性，类型只能为LONG或DOUBLE(INT、FLOAT会按LONG、DOUBLE处理)
+     */
+    public IndexSorter(SortField sortField) {
+        this.sortField = normalize(sortField);
+    }
+
+    /**
+     * 与SearchParam.addSortField的处理一致，将INT、FLOAT转换为LONG、DOUBLE
+     */
+    public static SortField normalize(SortField sortField) {
+        if (sortField.getType() == SortField.Type.INT) {
+            return new SortField(sortField.getField(), SortField.Type.LONG, sortField.getReverse());
+        } else if (sortField.getType() == SortField.Type.FLOAT) {
+            return new SortField(sortField.getField(), SortField.Type.DOUBLE, sortField.getReverse());
+        } else if (sortField.getType() == SortField.Type.LONG || sortField.getType() == SortField.Type.DOUBLE) {
+            return sortField;
+        }
+        throw new IllegalArgumentException("index sort only supports numeric fields: " + sortField);
+    }
+
+    public SortField getSortField() {
+        return sortField;
+    }
+
+    @Override
+    public DocMap sort(AtomicReader reader) throws IOException {
+        final int factor = sortField.getReverse() ? -1 : 1;
+        final DocComparator comparator;
+        if (sortField.getType() == SortField.Type.LONG) {
+            final FieldCache.Longs values = FieldCache.DEFAULT.getLongs(reader, sortField.getField(), false);
+            comparator = new DocComparator() {
+                @Override
+                public int compare(int docID1, int docID2) {
+                    long v1 = values.get(docID1);
+                    long v2 = values.get(docID2);
+                    return factor * (v1 < v2 ? -1 : (v1 == v2 ? 0 : 1));
+                }
+            };
+        } else {
+            final FieldCache.Doubles values = FieldCache.DEFAULT.getDoubles(reader, sortField.getField(), false);
+            comparator = new DocComparator() {
+                @Override
+                public int compare(int docID1, int docID2) {
+                    return factor * Double.compare(values.get(docID1), values.get(docID2));
+                }
+            };
+        }
+        return sort(reader.maxDoc(), comparator);
+    }
+
+    @Override
+    public String getID() {
+        return "IndexSorter(" + sortField + ")";
+    }
+}
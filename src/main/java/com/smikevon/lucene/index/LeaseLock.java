@@ -0,0 +1,247 @@
+package com.smikevon.lucene.index;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.store.Lock;
+import org.apache.lucene.store.LockReleaseFailedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ * 基于租约的写锁，适用于保存在NFS上、由多个进程写入的索引。
+ * 锁文件中保存持有者和租约到期时间，持有期间由后台线程每隔租约的1/3续约；
+ * 其它进程只有在锁文件的内容超过一个租约时间没有变化(按自己的时钟计算，不受各机器时钟偏差影响)、
+ * 或记录的到期时间已过去一个租约以上时才接管，接管过程由.break文件互斥，持有者活着但较慢时不会被强行解锁
+ *
+ * <p>租约须大于持有进程可能的最长停顿(如GC)，否则续约不及时锁可能被接管，续约时发现后记录错误日志</p>
+ *
+ */
+public class LeaseLock extends Lock {
+    private static Logger log = LoggerFactory.getLogger(LeaseLock.class);
+    private static final String PROCESS = ManagementFactory.getRuntimeMXBean().getName();
+    private static final Map<String, Observed> observed = new ConcurrentHashMap<String, Observed>();
+    private static ScheduledExecutorService heartbeat;
+
+    private final File lockDir;
+    private final File lockFile;
+    private final long leaseMillis;
+    private final String owner = PROCESS + "/" + UUID.randomUUID();
+    private boolean held;
+    private ScheduledFuture<?> renewal;
+
+    /**
+     * @param leaseMillis 租约时间，单位为毫秒(ms)，为0则不续约也不接管
+     */
+    public LeaseLock(File lockDir, String lockFileName, long leaseMillis) {
+        this.lockDir = lockDir;
+        this.lockFile = new File(lockDir, lockFileName);
+        this.leaseMillis = leaseMillis;
+    }
+
+    @Override
+    public synchronized boolean obtain() throws IOException {
+        if (!lockDir.exists()) {
+            if (!lockDir.mkdirs())
+                throw new IOException("Cannot create directory: " + lockDir.getAbsolutePath());
+        } else if (!lockDir.isDirectory()) {
+            throw new IOException("Found regular file where directory expected: " + lockDir.getAbsolutePath());
+        }
+        if (held) {
+            return false; // 已持有
+        }
+        if (lockFile.createNewFile()) {
+            grant();
+            return true;
+        }
+        if (leaseMillis <= 0) {
+            return false;
+        }
+        String lease = read(lockFile);
+        if (lease == null || !isExpired(lease)) {
+            return false;
+        }
+        return takeOver(lease);
+    }
+
+    /**
+     * 锁文件的内容自第一次看到起超过一个租约没有变化，或记录的到期时间已过去一个租约以上
+     */
+    private boolean isExpired(String lease) {
+        long now = System.currentTimeMillis();
+        String key = lockFile.getAbsolutePath();
+        Observed last = observed.get(key);
+        if (last == null || !last.lease.equals(lease)) {
+            observed.put(key, new Observed(lease, now));
+            long expires = parseExpires(lease);
+            return expires > 0 && now - expires > leaseMillis;
+        }
+        return now - last.since > leaseMillis;
+    }
+
+    private boolean takeOver(String expired) throws IOException {
+        File breakFile = new File(lockDir, lockFile.getName() + ".break");
+        if (!breakFile.createNewFile()) {
+            // 其它进程正在接管；接管的进程中途崩溃时，遗留的break文件超过一个租约后删除
+            if (System.currentTimeMillis() - breakFile.lastModified() > leaseMillis) {
+                breakFile.delete();
+            }
+            return false;
+        }
+        try {
+            if (!expired.equals(read(lockFile))) {
+                return false; // 已续约或已被其它进程接管
+            }
+            if (!lockFile.delete() || !lockFile.createNewFile()) {
+                return false;
+            }
+            log.warn("{} took over expired lease: {}", lockFile, expired.replace('\n', ' '));
+            grant();
+            return true;
+        } finally {
+            breakFile.delete();
+        }
+    }
+
+    private void grant() throws IOException {
+        write();
+        held = true;
+        observed.remove(lockFile.getAbsolutePath());
+        if (leaseMillis <= 0) {
+            return;
+        }
+        synchronized (LeaseLock.class) {
+            if (heartbeat == null) {
+                heartbeat = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "lease-heartbeat");
+                        t.setDaemon(true);
+                        t.setPriority(Thread.MAX_PRIORITY);
+                        return t;
+                    }
+                });
+            }
+        }
+        long period = Math.max(1, leaseMillis / 3);
+        renewal = heartbeat.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                renew();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void renew() {
+        if (!held) {
+            return;
+        }
+        try {
+            String lease = read(lockFile);
+            if (lease == null || !lease.startsWith(owner + "\n")) {
+                log.error("{} lease lost, now held by: {}", lockFile, lease);
+                renewal.cancel(false);
+                return;
+            }
+            write();
+        } catch (IOException e) {
+            log.error(lockFile + " renew lease failed", e);
+        }
+    }
+
+    private void write() throws IOException {
+        byte[] lease = (owner + "\n" + (System.currentTimeMillis() + leaseMillis) + "\n").getBytes("UTF-8");
+        RandomAccessFile file = new RandomAccessFile(lockFile, "rw");
+        try {
+            file.write(lease);
+            file.setLength(lease.length);
+            file.getFD().sync();
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * @return 锁文件的内容，文件不存在时返回null
+     */
+    private static String read(File lockFile) throws IOException {
+        FileInputStream in;
+        try {
+            in = new FileInputStream(lockFile);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            byte[] buf = new byte[512];
+            int n = 0, r;
+            while (n < buf.length && (r = in.read(buf, n, buf.length - n)) > 0) {
+                n += r;
+            }
+            return new String(buf, 0, n, "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return 记录的到期时间，内容不完整(正在写入或旧版本的锁)时返回0
+     */
+    private static long parseExpires(String lease) {
+        String[] lines = lease.split("\n");
+        try {
+            return lines.length >= 2 ? Long.parseLong(lines[1]) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public synchronized void release() throws IOException {
+        if (!held) {
+            return;
+        }
+        held = false;
+        if (renewal != null) {
+            renewal.cancel(false);
+            renewal = null;
+        }
+        String lease = read(lockFile);
+        if (lease == null || !lease.startsWith(owner + "\n")) {
+            log.error("{} lease lost before release, now held by: {}", lockFile, lease);
+            return;
+        }
+        if (!lockFile.delete())
+            throw new LockReleaseFailedException("failed to delete " + lockFile);
+    }
+
+    @Override
+    public boolean isLocked() {
+        return lockFile.exists();
+    }
+
+    @Override
+    public String toString() {
+        return "LeaseLock@" + lockFile + "[" + owner + "]";
+    }
+
+    private static class Observed {
+        final String lease;
+        final long since;
+
+        Observed(String lease, long since) {
+            this.lease = lease;
+            this.since = since;
+        }
+    }
+}
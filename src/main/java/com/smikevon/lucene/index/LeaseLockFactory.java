@@ -0,0 +1,46 @@
+package com.smikevon.lucene.index;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.lucene.store.FSLockFactory;
+import org.apache.lucene.store.Lock;
+
+/**
+ *
+ * 创建LeaseLock的LockFactory，不缓存writer时用于保存在NFS上的索引
+ *
+ */
+public class LeaseLockFactory extends FSLockFactory {
+    private final long leaseMillis;
+
+    /**
+     * @param lockDir 锁文件所在的目录
+     * @param leaseMillis 租约时间，单位为毫秒(ms)，超过该时间没有续约的锁可被其它进程接管，为0则不接管
+     */
+    public LeaseLockFactory(File lockDir, long leaseMillis) throws IOException {
+        setLockDir(lockDir);
+        this.leaseMillis = leaseMillis;
+    }
+
+    @Override
+    public Lock makeLock(String lockName) {
+        if (lockPrefix != null) {
+            lockName = lockPrefix + "-" + lockName;
+        }
+        return new LeaseLock(lockDir, lockName, leaseMillis);
+    }
+
+    @Override
+    public void clearLock(String lockName) throws IOException {
+        if (lockDir.exists()) {
+            if (lockPrefix != null) {
+                lockName = lockPrefix + "-" + lockName;
+            }
+            File lockFile = new File(lockDir, lockName);
+            if (lockFile.exists() && !lockFile.delete()) {
+                throw new IOException("Cannot delete " + lockFile);
+            }
+        }
+    }
+}
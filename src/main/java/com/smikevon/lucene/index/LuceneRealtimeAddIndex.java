@@ -32,10 +32,21 @@ public class LuceneRealtimeAddIndex extends AbstractLuceneIndex {
 	protected final void addAllIndex(IndexWriter writer) throws CorruptIndexException, IOException {
 		for(Document d:doc)
 			writer.addDocument(d);
+		metrics().addDocsIndexed(doc.length);
 	}
 
 	public final void makeIndex() throws LuceneIndexException {
 		 makeIndex(0);
 	}
 
+	@Override
+	protected boolean isRealtime() {
+		return _writer == null;
+	}
+
+	@Override
+	OperationLog.Op toOperation() {
+		return OperationLog.Op.add(doc);
+	}
+
 }
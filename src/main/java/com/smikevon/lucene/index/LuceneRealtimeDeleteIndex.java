@@ -1,9 +1,11 @@
 package com.smikevon.lucene.index;
 
 import java.io.IOException;
+import java.util.Collection;
 
 import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.classic.ParseException;
 
 import com.smikevon.lucene.search.SimpleQuery;
@@ -16,12 +18,43 @@ import com.smikevon.lucene.search.SimpleQuery;
 public class LuceneRealtimeDeleteIndex extends AbstractLuceneIndex {
 	private SimpleQuery query;
 	boolean delAll;
+	private String deleteFieldName; // 按单个属性删除时写入操作日志
+	private String deleteFieldValue;
+	private Term[] terms;
 
 	public LuceneRealtimeDeleteIndex(String indexPath, SimpleQuery query) {
 		super(indexPath);
 		this.query = query;
 	}
 
+	/**
+	 * 删除deleteFieldName属性为deleteFieldValue的文档，与SimpleQuery.and(deleteFieldName, deleteFieldValue)的条件相同
+	 */
+	public LuceneRealtimeDeleteIndex(String indexPath, String deleteFieldName, String deleteFieldValue) {
+		this(indexPath, new SimpleQuery(indexPath).and(deleteFieldName, deleteFieldValue));
+		this.deleteFieldName = deleteFieldName;
+		this.deleteFieldValue = deleteFieldValue;
+	}
+
+	/**
+	 * 按key批量删除：deleteFieldName属性的值等于keys中任一个的文档，值按原样精确匹配(不作为通配符)，
+	 * 全部key只需一次删除、一次commit，删除条件在flush时按segment统一查找
+	 * @param deleteFieldName key属性，须以不分词方式写入
+	 * @param keys key的值
+	 */
+	public LuceneRealtimeDeleteIndex(String indexPath, String deleteFieldName, Collection<String> keys) {
+		super(indexPath);
+		this.terms = toTerms(deleteFieldName, keys);
+	}
+
+    /**
+     * 调用该构造函数必须自己控制writer的close方法
+     */
+	public LuceneRealtimeDeleteIndex(IndexWriter writer, String deleteFieldName, Collection<String> keys) {
+		super(writer);
+		this.terms = toTerms(deleteFieldName, keys);
+	}
+
     /**
      * 调用该构造函数必须自己控制writer的close方法
      * @param writer
@@ -41,6 +74,9 @@ public class LuceneRealtimeDeleteIndex extends AbstractLuceneIndex {
 	protected final void addAllIndex(IndexWriter writer) throws CorruptIndexException, IOException, ParseException {
 		if(delAll){
 			writer.deleteAll();
+		}else if (terms != null) {
+			if (terms.length > 0)
+				writer.deleteDocuments(terms);
 		}else {
 			writer.deleteDocuments(query.getQuery());
 		}
@@ -50,4 +86,23 @@ public class LuceneRealtimeDeleteIndex extends AbstractLuceneIndex {
 		 makeIndex(0);
 	}
 
+	@Override
+	protected boolean isRealtime() {
+		return _writer == null;
+	}
+
+	static Term[] toTerms(String field, Collection<String> values) {
+		Term[] terms = new Term[values.size()];
+		int i = 0;
+		for (String value : values) {
+			terms[i++] = new Term(field, value);
+		}
+		return terms;
+	}
+
+	@Override
+	OperationLog.Op toOperation() {
+		return deleteFieldName != null ? OperationLog.Op.delete(deleteFieldName, deleteFieldValue) : null;
+	}
+
 }
@@ -1,9 +1,11 @@
 package com.smikevon.lucene.index;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 import org.apache.lucene.document.Document;
-import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.Term;
 /**
@@ -16,6 +18,7 @@ public class LuceneRealtimeUpdateIndex extends AbstractLuceneIndex {
 	private Document doc;
 	private String updateFieldName;
 	private String updateFieldValue;
+	private List<Document> docs; // 按key批量更新
 
 	public LuceneRealtimeUpdateIndex(String indexPath, String updateFieldName, String updateFieldValue, Document doc) {
 		super(indexPath);
@@ -38,16 +41,73 @@ public class LuceneRealtimeUpdateIndex extends AbstractLuceneIndex {
 		this.doc = doc;
 	}
 
+	/**
+	 * 按key批量更新：对每个文档，删除keyField属性值与该文档相同的原文档后加入该文档，原来没有的即为新增。
+	 * 全部文档只需一次commit，删除条件在flush时按segment统一查找
+	 * @param keyField key属性，须以不分词方式写入，每个文档都须有该属性
+	 * @param docs 文档，不能使用setReuseFields(true)
+	 * @throws IllegalArgumentException docs中有使用setReuseFields(true)的文档
+	 */
+	public LuceneRealtimeUpdateIndex(String indexPath, String keyField, Collection<? extends DocParam> docs) {
+		super(indexPath);
+		this.updateFieldName = keyField;
+		this.docs = toDocuments(docs);
+	}
+
+    /**
+     * 调用该构造函数必须自己控制writer的close方法
+     */
+	public LuceneRealtimeUpdateIndex(IndexWriter writer, String keyField, Collection<? extends DocParam> docs) {
+		super(writer);
+		this.updateFieldName = keyField;
+		this.docs = toDocuments(docs);
+	}
+
+	private static List<Document> toDocuments(Collection<? extends DocParam> params) {
+		List<Document> docs = new ArrayList<Document>(params.size());
+		for (DocParam param : params) {
+			if (param.isReuseFields()) // 复用的Field在下一个文档reset时被修改，批量中的文档会互相覆盖
+				throw new IllegalArgumentException("DocParam with setReuseFields(true) cannot be batched");
+			docs.add(param.getDocument());
+		}
+		return docs;
+	}
+
 	@Override
-	protected final void addAllIndex(IndexWriter writer) throws CorruptIndexException, IOException {
+	protected final void addAllIndex(IndexWriter writer) throws Exception {
+		if (docs != null) {
+			// 先检查key，避免只写入一部分
+			for (Document d : docs) {
+				if (d.get(updateFieldName) == null)
+					throw new LuceneIndexException("key field " + updateFieldName + " is null: " + d);
+			}
+			for (Document d : docs) {
+				writer.updateDocument(new Term(updateFieldName, d.get(updateFieldName)), d);
+			}
+			metrics().addDocsIndexed(docs.size());
+			return;
+		}
 		Term term = new Term(updateFieldName, updateFieldValue);
 //		writer.deleteDocuments(new WildcardQuery(term));
 //		writer.addDocument(doc);
 		writer.updateDocument(term, doc);
+		metrics().addDocsIndexed(1);
 	}
 
 	public final void makeIndex() throws LuceneIndexException {
 		 makeIndex(0);
 	}
 
+	@Override
+	protected boolean isRealtime() {
+		return _writer == null;
+	}
+
+	@Override
+	OperationLog.Op toOperation() {
+		if (docs != null)
+			return null;
+		return OperationLog.Op.update(updateFieldName, updateFieldValue, doc);
+	}
+
 }
@@ -0,0 +1,149 @@
+package com.smikevon.lucene.index;
+
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.TieredMergePolicy;
+
+/**
+ *
+ * 单个索引的merge设置，通过LuceneConfig.setMergeConfig设置，须在getIndexWriter之前调用
+ *
+ * <p>未设置的项与lucene的默认值相同。makeIndex()默认仍forceMerge为1个segment，
+ * 索引较大时可改为setForceMergeSegments(0)，由TieredMergePolicy在后台按层合并，
+ * 再配合setMaxMergeWriteMBPerSec限制merge的写入速度、setOffPeakMerge在低峰时段合并，避免merge期间查询耗时突增</p>
+ *
+ */
+public class MergeConfig {
+    private double maxMergedSegmentMB = 5 * 1024;
+    private double segmentsPerTier = 10;
+    private double floorSegmentMB = 2;
+    private int maxMergeAtOnce = 10;
+    private int maxMergeThreads = 0; // 为0则使用ConcurrentMergeScheduler的默认值
+    private int maxMergeCount = 0;
+    private double maxMergeWriteMBPerSec = 0; // 为0则不限速
+    private int forceMergeSegments = 1;
+    private int offPeakStartHour = -1;
+    private int offPeakEndHour = -1;
+    private int offPeakSegments = 0;
+
+    /**
+     * 设置TieredMergePolicy的参数
+     * @param maxMergedSegmentMB 合并产生的segment的大小上限，单位为MB，默认5120
+     * @param segmentsPerTier 每层允许的segment数，越小merge越频繁、segment越少，默认10
+     * @param floorSegmentMB 小于该大小的segment视为同样大小，避免大量小segment，单位为MB，默认2
+     * @param maxMergeAtOnce 一次merge最多合并的segment数，默认10
+     */
+    public MergeConfig setTieredMergePolicy(double maxMergedSegmentMB, double segmentsPerTier, double floorSegmentMB,
+            int maxMergeAtOnce) {
+        this.maxMergedSegmentMB = maxMergedSegmentMB;
+        this.segmentsPerTier = segmentsPerTier;
+        this.floorSegmentMB = floorSegmentMB;
+        this.maxMergeAtOnce = maxMergeAtOnce;
+        return this;
+    }
+
+    /**
+     * 设置ConcurrentMergeScheduler的线程数
+     * @param maxMergeThreads 同时执行merge的线程数
+     * @param maxMergeCount 允许排队的merge数，超过时写入线程将等待，不能小于maxMergeThreads
+     */
+    public MergeConfig setMergeThreads(int maxMergeThreads, int maxMergeCount) {
+        if (maxMergeThreads < 1 || maxMergeCount < maxMergeThreads) {
+            throw new IllegalArgumentException("maxMergeThreads=" + maxMergeThreads + ", maxMergeCount="
+                    + maxMergeCount);
+        }
+        this.maxMergeThreads = maxMergeThreads;
+        this.maxMergeCount = maxMergeCount;
+        return this;
+    }
+
+    /**
+     * 限制merge(含forceMerge)的写入速度，减少对磁盘和操作系统页缓存的冲击
+     * @param maxMergeWriteMBPerSec 单位为MB/s，为0则不限速
+     */
+    public MergeConfig setMaxMergeWriteMBPerSec(double maxMergeWriteMBPerSec) {
+        this.maxMergeWriteMBPerSec = maxMergeWriteMBPerSec;
+        return this;
+    }
+
+    /**
+     * @param forceMergeSegments AbstractLuceneScheduleIndex.makeIndex()全量重建后forceMerge的segment数，为0则不forceMerge，默认为1
+     */
+    public MergeConfig setForceMergeSegments(int forceMergeSegments) {
+        this.forceMergeSegments = forceMergeSegments;
+        return this;
+    }
+
+    /**
+     * 每天在startHour到endHour(不含)之间由后台线程对索引forceMerge一次，endHour小于startHour表示跨零点
+     * @param startHour 开始的小时，0~23
+     * @param endHour 结束的小时，0~23
+     * @param maxNumSegments forceMerge的segment数，为0则取消
+     */
+    public MergeConfig setOffPeakMerge(int startHour, int endHour, int maxNumSegments) {
+        if (startHour < 0 || startHour > 23 || endHour < 0 || endHour > 23 || startHour == endHour) {
+            throw new IllegalArgumentException("startHour=" + startHour + ", endHour=" + endHour);
+        }
+        this.offPeakStartHour = startHour;
+        this.offPeakEndHour = endHour;
+        this.offPeakSegments = maxNumSegments;
+        return this;
+    }
+
+    public double getMaxMergeWriteMBPerSec() {
+        return maxMergeWriteMBPerSec;
+    }
+
+    public int getForceMergeSegments() {
+        return forceMergeSegments;
+    }
+
+    public int getOffPeakStartHour() {
+        return offPeakStartHour;
+    }
+
+    public int getOffPeakSegments() {
+        return offPeakSegments;
+    }
+
+    /**
+     * @return hour是否在低峰时段内
+     */
+    public boolean isOffPeak(int hour) {
+        if (offPeakSegments <= 0)
+            return false;
+        if (offPeakStartHour < offPeakEndHour)
+            return hour >= offPeakStartHour && hour < offPeakEndHour;
+        return hour >= offPeakStartHour || hour < offPeakEndHour;
+    }
+
+    TieredMergePolicy newMergePolicy() {
+        TieredMergePolicy policy = new TieredMergePolicy();
+        policy.setMaxMergedSegmentMB(maxMergedSegmentMB);
+        policy.setSegmentsPerTier(segmentsPerTier);
+        policy.setFloorSegmentMB(floorSegmentMB);
+        policy.setMaxMergeAtOnce(maxMergeAtOnce);
+        return policy;
+    }
+
+    void configure(ConcurrentMergeScheduler scheduler) {
+        if (maxMergeThreads <= 0)
+            return;
+        // 两者须始终满足maxMergeCount>=maxThreadCount
+        if (maxMergeCount >= scheduler.getMaxThreadCount()) {
+            scheduler.setMaxMergeCount(maxMergeCount);
+            scheduler.setMaxThreadCount(maxMergeThreads);
+        } else {
+            scheduler.setMaxThreadCount(maxMergeThreads);
+            scheduler.setMaxMergeCount(maxMergeCount);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MergeConfig [maxMergedSegmentMB=" + maxMergedSegmentMB + ", segmentsPerTier=" + segmentsPerTier
+                + ", floorSegmentMB=" + floorSegmentMB + ", maxMergeAtOnce=" + maxMergeAtOnce + ", maxMergeThreads="
+                + maxMergeThreads + ", maxMergeCount=" + maxMergeCount + ", maxMergeWriteMBPerSec="
+                + maxMergeWriteMBPerSec + ", forceMergeSegments=" + forceMergeSegments + ", offPeak="
+                + offPeakStartHour + "-" + offPeakEndHour + "/" + offPeakSegments + "]";
+    }
+}
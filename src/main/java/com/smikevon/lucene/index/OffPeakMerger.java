@@ -0,0 +1,86 @@
+package com.smikevon.lucene.index;
+
+import java.util.Calendar;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.index.IndexWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.smikevon.lucene.LuceneConfig;
+
+/**
+ *
+ * 按MergeConfig.setOffPeakMerge的设置，每个低峰时段对索引forceMerge一次
+ *
+ */
+class OffPeakMerger implements Runnable {
+    private static Logger log = LoggerFactory.getLogger(OffPeakMerger.class);
+    private static final Map<String, OffPeakMerger> mergers = new ConcurrentHashMap<String, OffPeakMerger>();
+    private static ScheduledExecutorService executor;
+
+    private final String indexPath;
+    private long lastWindow; // 最近一次执行所在时段的开始时间
+
+    private OffPeakMerger(String indexPath) {
+        this.indexPath = indexPath;
+    }
+
+    /**
+     * 设置了低峰合并时启动检查，每个indexPath只启动一次
+     */
+    static synchronized void schedule(String indexPath, MergeConfig config) {
+        if (config.getOffPeakSegments() <= 0 || mergers.containsKey(indexPath))
+            return;
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "off-peak-merge");
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                }
+            });
+        }
+        OffPeakMerger merger = new OffPeakMerger(indexPath);
+        mergers.put(indexPath, merger);
+        executor.scheduleWithFixedDelay(merger, 1, 1, TimeUnit.MINUTES);
+    }
+
+    public void run() {
+        MergeConfig config = LuceneConfig.getMergeConfig(indexPath);
+        Calendar c = Calendar.getInstance();
+        int hour = c.get(Calendar.HOUR_OF_DAY);
+        if (!config.isOffPeak(hour))
+            return;
+        if (hour < config.getOffPeakStartHour())
+            c.add(Calendar.DAY_OF_MONTH, -1); // 跨零点的时段从前一天开始
+        c.set(Calendar.HOUR_OF_DAY, config.getOffPeakStartHour());
+        c.set(Calendar.MINUTE, 0);
+        c.set(Calendar.SECOND, 0);
+        c.set(Calendar.MILLISECOND, 0);
+        long window = c.getTimeInMillis();
+        if (window == lastWindow)
+            return;
+        lastWindow = window;
+
+        try {
+            long t1 = System.currentTimeMillis();
+            IndexWriter writer = AbstractLuceneIndex.getIndexWriter(indexPath);
+            try {
+                writer.forceMerge(config.getOffPeakSegments(), true);
+            } finally {
+                AbstractLuceneIndex.releaseIndexWriter(writer);
+            }
+            log.info("{} off-peak forceMerge({}) cost {} ms.", new Object[] { indexPath, config.getOffPeakSegments(),
+                    System.currentTimeMillis() - t1 });
+        } catch (Throwable e) {
+            log.error(indexPath + " off-peak forceMerge failed", e);
+        }
+    }
+}
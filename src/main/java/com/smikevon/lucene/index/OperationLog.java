@@ -0,0 +1,622 @@
+package com.smikevon.lucene.index;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.index.FieldInfo.DocValuesType;
+import org.apache.lucene.index.FieldInfo.IndexOptions;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.IndexableFieldType;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.util.BytesRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.smikevon.lucene.IndexConfig;
+import com.smikevon.lucene.search.SimpleQuery;
+
+/**
+ *
+ * 实时写入的操作日志(write-ahead log)，保存在索引目录旁的目录.oplog中
+ *
+ * <p>每次实时写入先顺序追加一条记录(长度、CRC32、序号、操作)再写入writer，
+ * 每次commit在提交数据中记录已写入writer的最大序号，commit期间写入等待，因而序号与提交的内容严格一致。
+ * 打开writer时重放序号大于该值的记录，进程崩溃时未commit的写入不会丢失。
+ * 日志按大小分段，已被commit覆盖的分段在commit后删除；末尾不完整的记录(崩溃时未写完)在重放时忽略。
+ * 写入writer失败时追加该序号的撤销记录，重放时跳过被撤销的记录；记录在写入writer之前追加，日志的顺序与writer中的顺序一致</p>
+ *
+ */
+class OperationLog {
+    private static Logger log = LoggerFactory.getLogger(OperationLog.class);
+    static final String SUFFIX = ".oplog";
+    static final String SEQ = "oplog.seq"; // 提交数据中记录已提交序号的key
+    private static final Map<IndexWriter, OperationLog> logs = Collections
+            .synchronizedMap(new WeakHashMap<IndexWriter, OperationLog>());
+    private static ScheduledExecutorService syncer;
+
+    private final String indexPath;
+    private final File dir;
+    private final long syncInterval;
+    private final long segmentBytes;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object syncLock = new Object();
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private long lastSeq;
+    private volatile long syncedSeq;
+    private boolean closed;
+
+    private OperationLog(String indexPath, File dir, IndexConfig config) {
+        this.indexPath = indexPath;
+        this.dir = dir;
+        this.syncInterval = config.getOperationLogSyncInterval();
+        this.segmentBytes = config.getOperationLogSegmentMB() * 1024L * 1024L;
+    }
+
+    /**
+     * @return writer的操作日志，没有启用时返回null
+     */
+    static OperationLog of(IndexWriter writer) {
+        return logs.get(writer);
+    }
+
+    /**
+     * 打开indexDir旁的操作日志，重放writer最后一次commit之后的记录并commit
+     */
+    static OperationLog open(String indexPath, File indexDir, IndexWriter writer, IndexConfig config)
+            throws IOException {
+        File dir = new File(indexDir.getAbsoluteFile().getParentFile(), indexDir.getName() + SUFFIX);
+        dir.mkdirs();
+        OperationLog oplog = new OperationLog(indexPath, dir, config);
+        oplog.replay(writer);
+        logs.put(writer, oplog);
+        if (oplog.syncInterval > 0) {
+            oplog.scheduleSync();
+        }
+        return oplog;
+    }
+
+    private void replay(IndexWriter writer) throws IOException {
+        String committed = writer.getCommitData().get(SEQ);
+        long seq = committed != null ? Long.parseLong(committed) : 0;
+        lastSeq = seq;
+        int count = 0;
+        long t1 = System.currentTimeMillis();
+        File[] segments = segments();
+        Set<Long> aborted = new HashSet<Long>();
+        for (File f : segments) {
+            DataInputStream in = new DataInputStream(new FileInputStream(f));
+            try {
+                Op op;
+                while ((op = read(in)) != null) {
+                    if (op.type == Op.ABORT)
+                        aborted.add(op.seq);
+                }
+            } finally {
+                in.close();
+            }
+        }
+        for (File f : segments) {
+            DataInputStream in = new DataInputStream(new FileInputStream(f));
+            try {
+                Op op;
+                while ((op = read(in)) != null) {
+                    lastSeq = Math.max(lastSeq, op.seq);
+                    if (op.seq > seq && op.type != Op.ABORT && !aborted.contains(op.seq)) {
+                        op.apply(writer, indexPath);
+                        count++;
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        }
+        if (count > 0) {
+            commit(writer);
+            log.info("{} replayed {} operations from {} in {} ms.", new Object[] { indexPath, count, dir,
+                    System.currentTimeMillis() - t1 });
+        } else {
+            trim(seq);
+        }
+        syncedSeq = lastSeq;
+        roll();
+    }
+
+    /**
+     * 追加一条记录，返回后须调用end(写入writer成功)或abort(失败)，两者之间写入writer
+     * @return 记录的序号
+     */
+    long begin(Op op) throws IOException {
+        lock.readLock().lock();
+        try {
+            synchronized (this) {
+                op.seq = ++lastSeq;
+                append(op);
+                return op.seq;
+            }
+        } catch (IOException e) {
+            lock.readLock().unlock();
+            throw e;
+        } catch (RuntimeException e) {
+            lock.readLock().unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * 写入writer之后调用，syncInterval为0时等待记录落盘
+     */
+    void end(long seq) throws IOException {
+        lock.readLock().unlock();
+        if (syncInterval <= 0) {
+            sync(seq);
+        }
+    }
+
+    /**
+     * 写入writer失败时代替end调用，追加撤销seq的记录，重放时不再写入该操作。
+     * 撤销记录追加失败只记录日志，不掩盖写入writer的异常
+     */
+    void abort(long seq) {
+        try {
+            synchronized (this) {
+                append(Op.abort(seq));
+            }
+        } catch (IOException e) {
+            log.error(dir + " append abort of " + seq + " failed", e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void append(Op op) throws IOException {
+        if (closed) {
+            throw new IOException(dir + " is closed");
+        }
+        ByteBuffer record = op.encode();
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+        if (channel.position() >= segmentBytes) {
+            roll();
+        }
+    }
+
+    /**
+     * 落盘到seq为止的记录，并发的调用合并为一次fsync
+     */
+    private void sync(long seq) throws IOException {
+        if (syncedSeq >= seq)
+            return;
+        synchronized (syncLock) {
+            if (syncedSeq >= seq)
+                return;
+            long upTo;
+            FileChannel c;
+            synchronized (this) {
+                upTo = lastSeq;
+                c = channel;
+            }
+            if (upTo <= syncedSeq)
+                return;
+            try {
+                c.force(false);
+            } catch (ClosedChannelException e) {
+                // 分段已切换，roll时已落盘
+            }
+            syncedSeq = Math.max(syncedSeq, upTo);
+        }
+    }
+
+    private void scheduleSync() {
+        synchronized (OperationLog.class) {
+            if (syncer == null) {
+                syncer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "oplog-sync");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+            }
+        }
+        syncer.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    synchronized (OperationLog.this) {
+                        if (closed)
+                            throw new IllegalStateException(); // 取消定时任务
+                    }
+                    sync(Long.MAX_VALUE);
+                } catch (IOException e) {
+                    log.error(dir + " sync failed", e);
+                }
+            }
+        }, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 在提交数据中记录当前序号并commit，期间实时写入等待；之后删除已被覆盖的分段
+     */
+    void commit(IndexWriter writer) throws IOException {
+        long seq;
+        lock.writeLock().lock();
+        try {
+            synchronized (this) {
+                seq = lastSeq;
+            }
+            setSeq(writer, seq);
+            writer.commit();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        trim(seq);
+    }
+
+    /**
+     * 记录当前序号后关闭writer及日志
+     */
+    void close(IndexWriter writer) throws IOException {
+        lock.writeLock().lock();
+        try {
+            synchronized (this) {
+                setSeq(writer, lastSeq);
+                writer.close();
+                closed = true;
+                channel.force(false);
+                file.close();
+            }
+        } finally {
+            lock.writeLock().unlock();
+            logs.remove(writer);
+        }
+    }
+
+    private static void setSeq(IndexWriter writer, long seq) {
+        Map<String, String> data = new HashMap<String, String>(writer.getCommitData());
+        data.put(SEQ, String.valueOf(seq));
+        writer.setCommitData(data);
+    }
+
+    /**
+     * 开始新的分段，文件名为分段中第一条记录的序号，已有该名称的分段(其中只有撤销记录)时取已有的最大名称加1，
+     * 不覆盖已有的分段。分段中记录的序号总是小于下一个分段的名称
+     */
+    private synchronized void roll() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+            file.close();
+        }
+        long first = lastSeq + 1;
+        File[] segments = segments();
+        if (segments.length > 0) {
+            first = Math.max(first, Long.parseLong(segments[segments.length - 1].getName().substring(0, 20)) + 1);
+        }
+        file = new RandomAccessFile(new File(dir, String.format("%020d.log", first)), "rw");
+        channel = file.getChannel();
+    }
+
+    /**
+     * 删除其中记录的序号都不大于seq的分段
+     */
+    private void trim(long seq) {
+        File[] segments = segments();
+        for (int i = 0; i + 1 < segments.length; i++) {
+            long next = Long.parseLong(segments[i + 1].getName().substring(0, 20));
+            if (next - 1 <= seq && !segments[i].delete()) {
+                log.warn("delete {} failed", segments[i]);
+            }
+        }
+    }
+
+    private File[] segments() {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return new File[0];
+        File[] segments = new File[files.length];
+        int n = 0;
+        for (File f : files) {
+            if (f.getName().length() == 24 && f.getName().endsWith(".log"))
+                segments[n++] = f;
+        }
+        segments = Arrays.copyOf(segments, n);
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    /**
+     * @return 下一条完整的记录，到达末尾或记录不完整时返回null
+     */
+    static Op read(DataInputStream in) throws IOException {
+        try {
+            int length = in.readInt();
+            long crc = in.readInt() & 0xffffffffL;
+            if (length <= 0 || length > 1 << 30)
+                return null;
+            byte[] body = new byte[length];
+            in.readFully(body);
+            CRC32 c = new CRC32();
+            c.update(body);
+            if (c.getValue() != crc)
+                return null;
+            return Op.decode(new DataInputStream(new ByteArrayInputStream(body)));
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 一次实时写入操作
+     */
+    static class Op {
+        static final byte ADD = 1;
+        static final byte UPDATE = 2;
+        static final byte DELETE = 3;
+        static final byte ABORT = 4; // 撤销序号为seq的记录
+        private static final byte STRING = 1, BYTES = 2, INT = 3, LONG = 4, FLOAT = 5, DOUBLE = 6;
+
+        long seq;
+        final byte type;
+        final String field; // UPDATE的term或DELETE的条件
+        final String value;
+        final Document[] docs;
+
+        private Op(byte type, String field, String value, Document[] docs) {
+            this.type = type;
+            this.field = field;
+            this.value = value;
+            this.docs = docs;
+        }
+
+        /**
+         * @return 文档中有不能写入日志的属性(Reader、TokenStream等)时返回null
+         */
+        static Op add(Document... docs) {
+            return loggable(docs) ? new Op(ADD, null, null, docs) : null;
+        }
+
+        static Op update(String field, String value, Document doc) {
+            return loggable(doc) ? new Op(UPDATE, field, value, new Document[] { doc }) : null;
+        }
+
+        /**
+         * 按SimpleQuery.and(field, value)删除
+         */
+        static Op delete(String field, String value) {
+            return new Op(DELETE, field, value, new Document[0]);
+        }
+
+        static Op abort(long seq) {
+            Op op = new Op(ABORT, null, null, new Document[0]);
+            op.seq = seq;
+            return op;
+        }
+
+        private static boolean loggable(Document... docs) {
+            for (Document doc : docs) {
+                for (IndexableField f : doc.getFields()) {
+                    if (!(f instanceof Field) || f.readerValue() != null || ((Field) f).tokenStreamValue() != null
+                            || f.numericValue() == null && f.stringValue() == null && f.binaryValue() == null) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        void apply(IndexWriter writer, String indexPath) throws IOException {
+            switch (type) {
+                case ADD:
+                    for (Document d : docs)
+                        writer.addDocument(d);
+                    break;
+                case UPDATE:
+                    writer.updateDocument(new Term(field, value), docs[0]);
+                    break;
+                case DELETE:
+                    Query query;
+                    try {
+                        query = new SimpleQuery(indexPath).and(field, value).getQuery();
+                    } catch (Exception e) {
+                        throw new IllegalArgumentException("invalid delete condition " + field + ":" + value, e);
+                    }
+                    writer.deleteDocuments(query);
+                    break;
+                default:
+                    throw new IOException("unknown operation " + type);
+            }
+        }
+
+        ByteBuffer encode() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(seq);
+            out.writeByte(type);
+            if (type != ADD && type != ABORT) {
+                out.writeUTF(field);
+                writeString(out, value);
+            }
+            out.writeInt(docs.length);
+            for (Document doc : docs) {
+                out.writeInt(doc.getFields().size());
+                for (IndexableField f : doc.getFields()) {
+                    writeField(out, f);
+                }
+            }
+            out.flush();
+            byte[] body = bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            ByteBuffer record = ByteBuffer.allocate(8 + body.length);
+            record.putInt(body.length).putInt((int) crc.getValue()).put(body);
+            record.flip();
+            return record;
+        }
+
+        static Op decode(DataInputStream in) throws IOException {
+            long seq = in.readLong();
+            byte type = in.readByte();
+            String field = null, value = null;
+            if (type != ADD && type != ABORT) {
+                field = in.readUTF();
+                value = readString(in);
+            }
+            Document[] docs = new Document[in.readInt()];
+            for (int i = 0; i < docs.length; i++) {
+                docs[i] = new Document();
+                int fields = in.readInt();
+                for (int j = 0; j < fields; j++) {
+                    docs[i].add(readField(in));
+                }
+            }
+            Op op = new Op(type, field, value, docs);
+            op.seq = seq;
+            return op;
+        }
+
+        private static void writeField(DataOutputStream out, IndexableField f) throws IOException {
+            IndexableFieldType t = f.fieldType();
+            out.writeUTF(f.name());
+            out.writeFloat(f.boost());
+            int flags = (t.indexed() ? 1 : 0) | (t.stored() ? 2 : 0) | (t.tokenized() ? 4 : 0)
+                    | (t.omitNorms() ? 8 : 0) | (t.storeTermVectors() ? 16 : 0) | (t.storeTermVectorOffsets() ? 32 : 0)
+                    | (t.storeTermVectorPositions() ? 64 : 0) | (t.storeTermVectorPayloads() ? 128 : 0);
+            out.writeByte(flags);
+            out.writeByte(t.indexOptions() == null ? -1 : t.indexOptions().ordinal());
+            out.writeByte(t.docValueType() == null ? -1 : t.docValueType().ordinal());
+            FieldType ft = t instanceof FieldType ? (FieldType) t : null;
+            out.writeByte(ft == null || ft.numericType() == null ? -1 : ft.numericType().ordinal());
+            out.writeInt(ft == null ? 0 : ft.numericPrecisionStep());
+
+            Number n = f.numericValue();
+            if (n instanceof Integer) {
+                out.writeByte(INT);
+                out.writeInt(n.intValue());
+            } else if (n instanceof Long) {
+                out.writeByte(LONG);
+                out.writeLong(n.longValue());
+            } else if (n instanceof Float) {
+                out.writeByte(FLOAT);
+                out.writeFloat(n.floatValue());
+            } else if (n instanceof Double) {
+                out.writeByte(DOUBLE);
+                out.writeDouble(n.doubleValue());
+            } else if (f.binaryValue() != null && f.stringValue() == null) {
+                BytesRef b = f.binaryValue();
+                out.writeByte(BYTES);
+                out.writeInt(b.length);
+                out.write(b.bytes, b.offset, b.length);
+            } else {
+                out.writeByte(STRING);
+                writeString(out, f.stringValue());
+            }
+        }
+
+        private static IndexableField readField(DataInputStream in) throws IOException {
+            String name = in.readUTF();
+            float boost = in.readFloat();
+            int flags = in.readByte() & 0xff;
+            FieldType t = new FieldType();
+            t.setIndexed((flags & 1) != 0);
+            t.setStored((flags & 2) != 0);
+            t.setTokenized((flags & 4) != 0);
+            t.setOmitNorms((flags & 8) != 0);
+            t.setStoreTermVectors((flags & 16) != 0);
+            t.setStoreTermVectorOffsets((flags & 32) != 0);
+            t.setStoreTermVectorPositions((flags & 64) != 0);
+            t.setStoreTermVectorPayloads((flags & 128) != 0);
+            int indexOptions = in.readByte();
+            if (indexOptions >= 0)
+                t.setIndexOptions(IndexOptions.values()[indexOptions]);
+            int docValueType = in.readByte();
+            if (docValueType >= 0)
+                t.setDocValueType(DocValuesType.values()[docValueType]);
+            int numericType = in.readByte();
+            int precisionStep = in.readInt();
+            if (numericType >= 0) {
+                t.setNumericType(FieldType.NumericType.values()[numericType]);
+                t.setNumericPrecisionStep(precisionStep);
+            }
+            t.freeze();
+
+            Object value;
+            switch (in.readByte()) {
+                case INT:
+                    value = in.readInt();
+                    break;
+                case LONG:
+                    value = in.readLong();
+                    break;
+                case FLOAT:
+                    value = in.readFloat();
+                    break;
+                case DOUBLE:
+                    value = in.readDouble();
+                    break;
+                case BYTES:
+                    byte[] b = new byte[in.readInt()];
+                    in.readFully(b);
+                    value = new BytesRef(b);
+                    break;
+                default:
+                    value = readString(in);
+            }
+            return new ReplayField(name, t, value, boost);
+        }
+
+        /**
+         * writeUTF限制64K，长文本按UTF-8字节写入
+         */
+        private static void writeString(DataOutputStream out, String s) throws IOException {
+            byte[] b = s.getBytes("UTF-8");
+            out.writeInt(b.length);
+            out.write(b);
+        }
+
+        private static String readString(DataInputStream in) throws IOException {
+            byte[] b = new byte[in.readInt()];
+            in.readFully(b);
+            return new String(b, "UTF-8");
+        }
+    }
+
+    /**
+     * 重放时还原的属性，值与类型均与写入日志时相同
+     */
+    private static class ReplayField extends Field {
+        ReplayField(String name, FieldType type, Object value, float boost) {
+            super(name, type);
+            this.fieldsData = value;
+            this.boost = boost;
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.smikevon.lucene.index;
 
-import org.apache.lucene.document.Document;
+import java.util.Collection;
+import java.util.concurrent.Future;
+
 import org.apache.lucene.index.IndexWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,37 +56,77 @@ public class SimpleIndex extends DocParam {
 	}
 
 	public final void addIndex() throws LuceneIndexException {
-		index = new LuceneRealtimeAddIndex(indexPath, this.doc);
+		index = new LuceneRealtimeAddIndex(indexPath, getDocument());
 		index.makeIndex();
 	}
 
 	public final void updateIndex(String updateFieldName, String updateFieldValue) throws LuceneIndexException {
-		index = new LuceneRealtimeUpdateIndex(indexPath, updateFieldName, updateFieldValue, this.doc);
+		index = new LuceneRealtimeUpdateIndex(indexPath, updateFieldName, updateFieldValue, getDocument());
 		index.makeIndex();
 	}
 
 	public final void updateIndex(String updateFieldName) throws LuceneIndexException {
-		updateIndex(updateFieldName, this.doc.get(updateFieldName));
+		updateIndex(updateFieldName, getDocument().get(updateFieldName));
 	}
 
 	public final void deleteIndex(String deleteFieldName, String deleteFieldValue) throws LuceneIndexException {
-		index = new LuceneRealtimeDeleteIndex(indexPath, new SimpleQuery(indexPath).and(deleteFieldName, deleteFieldValue));
+		index = new LuceneRealtimeDeleteIndex(indexPath, deleteFieldName, deleteFieldValue);
+		index.makeIndex();
+	}
+
+	/**
+	 * 批量删除keyField属性的值等于keys中任一个的文档，只commit一次。
+	 * 与deleteIndex不同，值按原样精确匹配，不作为通配符。
+	 * 启用了IndexConfig.setOperationLog时，该批量删除不写入操作日志，返回前立即commit
+	 * @param keyField key属性，须以不分词方式写入
+	 */
+	public final void deleteByKeys(String keyField, Collection<String> keys) throws LuceneIndexException {
+		index = new LuceneRealtimeDeleteIndex(indexPath, keyField, keys);
 		index.makeIndex();
 	}
 
+	/**
+	 * 批量更新或新增文档：按每个文档keyField属性的值替换原文档，原来没有的即为新增，只commit一次。
+	 * 启用了IndexConfig.setOperationLog时，该批量写入不写入操作日志，返回前立即commit
+	 * @param keyField key属性，须以不分词方式写入，每个文档都须有该属性
+	 * @param docs 文档，不能使用setReuseFields(true)
+	 * @throws IllegalArgumentException docs中有使用setReuseFields(true)的文档
+	 */
+	public final void upsertAll(String keyField, Collection<? extends DocParam> docs) throws LuceneIndexException {
+		index = new LuceneRealtimeUpdateIndex(indexPath, keyField, docs);
+		index.makeIndex();
+	}
+
+	/**
+	 * 设置了IndexConfig.setGroupCommit时，addIndex、updateIndex、deleteIndex返回后写入尚未提交，
+	 * 需要确认已落盘时调用getCommitFuture().get()等待
+	 * @return 覆盖最近一次addIndex、updateIndex或deleteIndex的commit，还没有写入时为null
+	 */
+	public Future<Void> getCommitFuture() {
+		return index == null ? null : index.getCommitFuture();
+	}
+
+	/**
+	 * 设置了IndexConfig.setNearRealtime时，将返回值传给SimpleQuery.waitFor，查询可立即看到该次写入而不需要等待commit和reopen
+	 * @return 最近一次addIndex、updateIndex、deleteIndex等写入完成后的代号，还没有写入时为0
+	 */
+	public long getGeneration() {
+		return index == null ? 0 : index.getGeneration();
+	}
+
 	public void batchAdd() throws LuceneIndexException {
 		check();
 
-		index = new LuceneRealtimeAddIndex(_writer, this.doc);
+		index = new LuceneRealtimeAddIndex(_writer, getDocument());
 		index.makeIndex();
-		this.doc = new Document();
+		reset();
 	}
 
 	public void batchAdd(DocParam... docParam) throws LuceneIndexException {
 		check();
 
 		for (DocParam doc : docParam) {
-			index = new LuceneRealtimeAddIndex(_writer, doc.doc);
+			index = new LuceneRealtimeAddIndex(_writer, doc.getDocument());
 			index.makeIndex();
 		}
 	}
@@ -92,13 +134,13 @@ public class SimpleIndex extends DocParam {
 	public void batchUpdate(String updateFieldName, String updateFieldValue) throws LuceneIndexException {
 		check();
 
-		index = new LuceneRealtimeUpdateIndex(_writer, updateFieldName, updateFieldValue, this.doc);
+		index = new LuceneRealtimeUpdateIndex(_writer, updateFieldName, updateFieldValue, getDocument());
 		index.makeIndex();
-		this.doc = new Document();
+		reset();
 	}
 
 	public void batchUpdate(String updateFieldName) throws LuceneIndexException {
-		batchUpdate(updateFieldName, this.doc.get(updateFieldName));
+		batchUpdate(updateFieldName, getDocument().get(updateFieldName));
 	}
 
 	public void batchDelete(String deleteFieldName, String deleteFieldValue) throws LuceneIndexException {
@@ -109,6 +151,26 @@ public class SimpleIndex extends DocParam {
 		index.makeIndex();
 	}
 
+	/**
+	 * 批量操作中按key删除，见deleteByKeys
+	 */
+	public void batchDeleteByKeys(String keyField, Collection<String> keys) throws LuceneIndexException {
+		check();
+
+		index = new LuceneRealtimeDeleteIndex(_writer, keyField, keys);
+		index.makeIndex();
+	}
+
+	/**
+	 * 批量操作中按key更新或新增，见upsertAll
+	 */
+	public void batchUpsertAll(String keyField, Collection<? extends DocParam> docs) throws LuceneIndexException {
+		check();
+
+		index = new LuceneRealtimeUpdateIndex(_writer, keyField, docs);
+		index.makeIndex();
+	}
+
 	public void batchDelete(SimpleQuery query) throws LuceneIndexException {
 		check();
 
@@ -135,7 +197,7 @@ public class SimpleIndex extends DocParam {
 	public void commitBatch() throws LuceneIndexException {
 		if (_writer != null) {
 			try {
-				_writer.commit();
+				AbstractLuceneIndex.commitIndexWriter(_writer);
 				if (batchStart != null) {
 					logger.info("===> ������ʱ:{} ����.", System.currentTimeMillis() - batchStart);
 					batchStart = null;
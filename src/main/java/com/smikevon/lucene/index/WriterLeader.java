@@ -0,0 +1,365 @@
+package com.smikevon.lucene.index;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.LockObtainFailedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.smikevon.lucene.IndexConfig;
+import com.smikevon.lucene.LuceneConfig;
+import com.smikevon.lucene.metrics.LuceneMetrics;
+
+/**
+ *
+ * 不缓存writer的多进程部署中，由一个进程作为indexPath的写入leader：通过写锁(LeaseLock)选出，持有writer不关闭，
+ * 其它进程的实时写入以操作记录的形式写入索引目录旁的.spool目录，由leader的后台线程按文件名顺序批量写入并一次commit。
+ * leader退出或崩溃后写锁的租约过期，其它进程的后台线程接管写锁成为新的leader，并处理遗留的记录
+ *
+ * <p>记录文件名为时间戳、进程标识及进程内递增的序号，同一进程转发的写入按转发的顺序执行。
+ * 每次commit的提交数据中记录本批处理的记录文件，成为leader时先删除其中遗留的文件，崩溃时已提交的记录不会重复写入。
+ * 不能还原的记录改名为.bad后跳过；执行出错时回滚本批并放弃leader(出错的记录改名为.bad)，
+ * 之后重新竞选并从未提交的记录继续，已执行的记录不会因回滚丢失也不会重复写入</p>
+ *
+ */
+class WriterLeader implements Runnable {
+    private static Logger log = LoggerFactory.getLogger(WriterLeader.class);
+    static final String APPLIED = "spool.applied";
+    private static final int MAX_BATCH = 1000;
+    private static final Map<String, WriterLeader> leaders = new ConcurrentHashMap<String, WriterLeader>();
+    private static final Map<IndexWriter, WriterLeader> writers = new ConcurrentHashMap<IndexWriter, WriterLeader>();
+    private static final String PROCESS = ManagementFactory.getRuntimeMXBean().getName().replaceAll("[^0-9A-Za-z]", "_");
+    private static long lastStamp; // 本进程最近一个记录文件的时间戳，时钟回拨时不减小
+    private static long sequence;
+
+    private final String indexPath;
+    private final File spool;
+    private volatile IndexWriter writer; // 本进程为leader时不为null
+
+    private WriterLeader(String indexPath) {
+        this.indexPath = indexPath;
+        this.spool = new File(indexPath + ".spool");
+    }
+
+    /**
+     * @return indexPath的leader，第一次调用时启动竞选及处理记录的后台线程
+     */
+    static WriterLeader get(String indexPath) {
+        WriterLeader leader = leaders.get(indexPath);
+        if (leader == null) {
+            synchronized (leaders) {
+                leader = leaders.get(indexPath);
+                if (leader == null) {
+                    leader = new WriterLeader(indexPath);
+                    leaders.put(indexPath, leader);
+                    Thread t = new Thread(leader, "writer-leader-" + new File(indexPath).getName());
+                    t.setDaemon(true);
+                    t.start();
+                }
+            }
+        }
+        return leader;
+    }
+
+    /**
+     * @return writer为本进程作为leader持有的writer时返回其leader，否则返回null
+     */
+    static WriterLeader of(IndexWriter writer) {
+        return writers.get(writer);
+    }
+
+    /**
+     * @return 本进程为leader时返回持有的writer，否则返回null
+     */
+    IndexWriter getWriter() {
+        return writer;
+    }
+
+    /**
+     * 将操作写入.spool目录交由leader执行，返回时记录已落盘
+     * @return leader提交该操作后完成
+     */
+    Future<Void> forward(OperationLog.Op op) throws IOException {
+        if (!spool.exists() && !spool.mkdirs() && !spool.isDirectory())
+            throw new IOException("Cannot create directory: " + spool);
+        String name = nextName();
+        File tmp = new File(spool, name + ".tmp");
+        File file = new File(spool, name + ".op");
+        ByteBuffer record = op.encode();
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write(record.array(), record.arrayOffset(), record.remaining());
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("rename " + tmp + " to " + file + " failed");
+        }
+        return new SpoolFuture(file);
+    }
+
+    /**
+     * @return 下一个记录文件名，同一进程的文件名按字符串顺序严格递增
+     */
+    private static synchronized String nextName() {
+        lastStamp = Math.max(lastStamp, System.currentTimeMillis());
+        return String.format("%013d-%s-%010d", lastStamp, PROCESS, ++sequence);
+    }
+
+    /**
+     * 放弃leader并关闭writer，索引切换到新目录后调用，之后在新目录上重新竞选
+     */
+    synchronized void resign() throws IOException {
+        IndexWriter w = writer;
+        if (w != null) {
+            writer = null;
+            writers.remove(w);
+            GroupCommitter.closing(w);
+            w.close();
+        }
+    }
+
+    /**
+     * 提交leader的writer，与批量处理记录互斥，以保证提交数据中的记录文件与提交的内容一致
+     */
+    synchronized void commit(IndexWriter writer) throws IOException {
+        writer.commit();
+    }
+
+    public void run() {
+        IndexConfig config = LuceneConfig.getIndexConfig(indexPath);
+        while (true) {
+            try {
+                if (writer == null) {
+                    elect(config);
+                    if (writer == null) {
+                        Thread.sleep(Math.max(config.getWriterLeaderInterval(), 1000));
+                        continue;
+                    }
+                }
+                if (!apply()) {
+                    Thread.sleep(config.getWriterLeaderInterval());
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Throwable e) {
+                log.error(indexPath + " writer leader failed", e);
+                try {
+                    Thread.sleep(Math.max(config.getWriterLeaderInterval(), 1000));
+                } catch (InterruptedException e1) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 尝试取得写锁，取得后成为leader
+     */
+    private void elect(IndexConfig config) throws IOException {
+        File dirIndex = new File(IndexLocation.resolve(indexPath));
+        Directory dir = AbstractLuceneIndex.openDirectory(indexPath, dirIndex);
+        dir.setLockFactory(new LeaseLockFactory(dirIndex, config.getWriterMaxlocktime()));
+        IndexWriterConfig iwc = AbstractLuceneIndex.newIndexWriterConfig(indexPath);
+        iwc.setWriteLockTimeout(0);
+        IndexWriter w;
+        synchronized (("index." + indexPath).intern()) {
+            try {
+                w = new IndexWriter(dir, iwc);
+            } catch (LockObtainFailedException e) {
+                dir.close();
+                return;
+            }
+            Runtime.getRuntime().addShutdownHook(new AbstractLuceneIndex.IndexWriterCloseThread(w));
+            AbstractLuceneIndex.registerIndexWriter(indexPath, w);
+            writers.put(w, this);
+            writer = w;
+        }
+        String applied = w.getCommitData().get(APPLIED);
+        if (applied != null) {
+            for (String name : applied.split(",")) {
+                new File(spool, name).delete(); // 上一个leader已提交但未删除
+            }
+        }
+        log.info("{} became writer leader", indexPath);
+    }
+
+    /**
+     * 按文件名顺序执行一批记录并commit，之后删除这些记录。
+     * 记录执行失败时Lucene可能已丢弃本批中先前缓存的文档，因而总是回滚本批并放弃leader：
+     * 文档或条件本身的问题(RuntimeException)将该记录改名为.bad，writer的问题(IOException等)保留全部记录，
+     * 其余记录在重新成为leader后再执行
+     * @return 是否有记录
+     */
+    private boolean apply() throws IOException {
+        if (writer == null)
+            return false;
+        File[] files = spool.listFiles();
+        if (files == null)
+            return false;
+        List<File> batch = new ArrayList<File>();
+        for (File f : files) {
+            if (f.getName().endsWith(".op"))
+                batch.add(f);
+        }
+        if (batch.isEmpty())
+            return false;
+        File[] sorted = batch.toArray(new File[batch.size()]);
+        Arrays.sort(sorted);
+        if (sorted.length > MAX_BATCH)
+            sorted = Arrays.copyOf(sorted, MAX_BATCH);
+
+        StringBuilder names = new StringBuilder();
+        List<File> applied = new ArrayList<File>(sorted.length);
+        synchronized (this) {
+            IndexWriter w = writer;
+            if (w == null)
+                return false; // 已放弃leader
+            boolean committed = false;
+            try {
+                for (File f : sorted) {
+                    OperationLog.Op op = read(f);
+                    if (op == null) {
+                        log.error("{} corrupted, moved aside", f);
+                        moveAside(f);
+                        continue;
+                    }
+                    try {
+                        op.apply(w, indexPath);
+                    } catch (AlreadyClosedException e) {
+                        throw e;
+                    } catch (RuntimeException e) { // 文档或条件本身的问题
+                        log.error(f + " cannot be applied, moved aside", e);
+                        moveAside(f);
+                        throw e;
+                    }
+                    if (names.length() > 0)
+                        names.append(',');
+                    names.append(f.getName());
+                    applied.add(f);
+                }
+                Map<String, String> data = new HashMap<String, String>(w.getCommitData());
+                data.put(APPLIED, names.toString());
+                w.setCommitData(data);
+                long t = System.nanoTime();
+                w.commit();
+                LuceneMetrics.get(indexPath).getCommitLatency().record(System.nanoTime() - t);
+                committed = true;
+            } finally {
+                if (!committed) {
+                    abandon(w);
+                }
+            }
+        }
+        for (File f : applied) {
+            f.delete();
+        }
+        log.debug("{} applied {} forwarded operations", indexPath, applied.size());
+        return true;
+    }
+
+    private void moveAside(File f) {
+        if (!f.renameTo(new File(spool, f.getName().replace(".op", ".bad"))))
+            log.error("move {} aside failed", f);
+    }
+
+    /**
+     * 执行出错时回滚未提交的部分并放弃leader，未执行及已回滚的记录文件仍在.spool中，重新竞选后再执行。
+     * 本进程直接写入该writer而尚未提交的写入随之丢弃，其合并提交的Future失败
+     */
+    private void abandon(IndexWriter w) {
+        writer = null;
+        writers.remove(w);
+        try {
+            w.rollback();
+        } catch (Throwable e) {
+            log.error(indexPath + " rollback writer failed", e);
+        }
+        GroupCommitter.fail(w, new IOException(indexPath + " writer leader rolled back uncommitted writes"));
+        log.warn("{} gave up writer leader after failure, re-electing", indexPath);
+    }
+
+    /**
+     * @return 记录中的操作，内容不完整或不能还原(如属性的类型不合法)时返回null
+     */
+    private static OperationLog.Op read(File f) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        try {
+            return OperationLog.read(in);
+        } catch (RuntimeException e) {
+            log.error(f + " cannot be decoded", e);
+            return null;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * 转发的写入在leader提交后记录文件被删除
+     */
+    private static class SpoolFuture implements Future<Void> {
+        private final File file;
+        private final File bad;
+
+        SpoolFuture(File file) {
+            this.file = file;
+            this.bad = new File(file.getParentFile(), file.getName().replace(".op", ".bad"));
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return false;
+        }
+
+        public boolean isDone() {
+            return !file.exists();
+        }
+
+        public Void get() throws InterruptedException, ExecutionException {
+            try {
+                return get(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                throw new ExecutionException(e);
+            }
+        }
+
+        public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+                TimeoutException {
+            long deadline = System.currentTimeMillis() + Math.min(unit.toMillis(timeout), Long.MAX_VALUE / 2);
+            while (file.exists()) {
+                if (System.currentTimeMillis() >= deadline)
+                    throw new TimeoutException(file.getName());
+                Thread.sleep(10);
+            }
+            if (bad.exists())
+                throw new ExecutionException(new IOException(file + " corrupted"));
+            return null;
+        }
+    }
+}
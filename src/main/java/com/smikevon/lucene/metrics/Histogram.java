@@ -0,0 +1,133 @@
+package com.smikevon.lucene.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ *
+ * 记录耗时(纳秒)分布的直方图，桶按2的幂分段，每段再线性分为16个子桶(与HdrHistogram相同的思路)，
+ * 相对误差不超过1/16。record方法只做原子自增，不分配对象，可以放在查询和索引的热路径上。
+ */
+public class Histogram implements HistogramMBean {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = SUB_COUNT + (64 - SUB_BITS) * SUB_COUNT;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    static int bucketIndex(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_COUNT - 1);
+        return SUB_COUNT + (exp - SUB_BITS) * SUB_COUNT + sub;
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_COUNT) / SUB_COUNT;
+        long sub = (index - SUB_COUNT) % SUB_COUNT;
+        long lower = (SUB_COUNT + sub) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    /**
+     * 记录一次耗时
+     * @param nanos 耗时，单位为纳秒(ns)，小于0时按0处理
+     */
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        buckets.incrementAndGet(bucketIndex(nanos));
+        count.incrementAndGet();
+        sum.addAndGet(nanos);
+        long m;
+        while (nanos > (m = max.get())) {
+            if (max.compareAndSet(m, nanos))
+                break;
+        }
+    }
+
+    /**
+     * @param quantile 0到1之间的分位数
+     * @return 该分位数对应的耗时上界，单位为纳秒(ns)
+     */
+    public long getValueAtQuantile(double quantile) {
+        long total = count.get();
+        if (total == 0)
+            return 0;
+        long target = (long) Math.ceil(quantile * total);
+        if (target < 1)
+            target = 1;
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= target) {
+                return Math.min(bucketUpperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    private static double toMs(long nanos) {
+        return nanos / 1000000.0;
+    }
+
+    @Override
+    public long getCount() {
+        return count.get();
+    }
+
+    @Override
+    public double getMeanMs() {
+        long c = count.get();
+        return c == 0 ? 0 : toMs(sum.get()) / c;
+    }
+
+    @Override
+    public double getP50Ms() {
+        return toMs(getValueAtQuantile(0.5));
+    }
+
+    @Override
+    public double getP90Ms() {
+        return toMs(getValueAtQuantile(0.9));
+    }
+
+    @Override
+    public double getP99Ms() {
+        return toMs(getValueAtQuantile(0.99));
+    }
+
+    @Override
+    public double getP999Ms() {
+        return toMs(getValueAtQuantile(0.999));
+    }
+
+    @Override
+    public double getMaxMs() {
+        return toMs(max.get());
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + ", mean=" + getMeanMs() + "ms, p50=" + getP50Ms() + "ms, p99=" + getP99Ms()
+                + "ms, p999=" + getP999Ms() + "ms, max=" + getMaxMs() + "ms";
+    }
+}
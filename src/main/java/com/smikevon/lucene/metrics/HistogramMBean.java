@@ -0,0 +1,23 @@
+package com.smikevon.lucene.metrics;
+
+/**
+ *
+ * 通过JMX暴露的耗时分布，单位均为毫秒(ms)
+ */
+public interface HistogramMBean {
+    long getCount();
+
+    double getMeanMs();
+
+    double getP50Ms();
+
+    double getP90Ms();
+
+    double getP99Ms();
+
+    double getP999Ms();
+
+    double getMaxMs();
+
+    void reset();
+}
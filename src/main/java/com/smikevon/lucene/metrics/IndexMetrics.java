@@ -0,0 +1,156 @@
+package com.smikevon.lucene.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * 单个索引(以indexPath区分)的查询及写入指标
+ */
+public class IndexMetrics implements IndexMetricsMBean {
+    private final String indexPath;
+
+    private final AtomicLong queryCount = new AtomicLong();
+    private final AtomicLong queryErrorCount = new AtomicLong();
+    private final AtomicLong docsIndexed = new AtomicLong();
+    private long lastRateDocs;
+    private long lastRateTime = System.nanoTime();
+
+    /** 查询总耗时(getQuery到读取完存储属性) */
+    private final Histogram queryLatency = new Histogram();
+    /** SearcherManager.maybeRefresh耗时 */
+    private final Histogram refreshLatency = new Histogram();
+    /** 新searcher发布前的预热耗时，包含在refreshLatency中 */
+    private final Histogram warmLatency = new Histogram();
+    /** SearcherManager.acquire耗时 */
+    private final Histogram acquireLatency = new Histogram();
+    /** getIndexWriter等待写锁的时间 */
+    private final Histogram writerLockWait = new Histogram();
+    /** makeIndex耗时，SimpleIndex的每次增删改都会经过该方法 */
+    private final Histogram indexLatency = new Histogram();
+    /** commitIndexWriter及writer leader批量提交的耗时 */
+    private final Histogram commitLatency = new Histogram();
+    private final Histogram flushLatency = new Histogram();
+    private final Histogram mergeLatency = new Histogram();
+
+    public IndexMetrics(String indexPath) {
+        this.indexPath = indexPath;
+    }
+
+    @Override
+    public String getIndexPath() {
+        return indexPath;
+    }
+
+    public void incQueryCount() {
+        queryCount.incrementAndGet();
+    }
+
+    @Override
+    public long getQueryCount() {
+        return queryCount.get();
+    }
+
+    public void incQueryErrorCount() {
+        queryErrorCount.incrementAndGet();
+    }
+
+    @Override
+    public long getQueryErrorCount() {
+        return queryErrorCount.get();
+    }
+
+    public void addDocsIndexed(int docs) {
+        docsIndexed.addAndGet(docs);
+    }
+
+    @Override
+    public long getDocsIndexed() {
+        return docsIndexed.get();
+    }
+
+    @Override
+    public synchronized double getDocsIndexedPerSecond() {
+        long now = System.nanoTime();
+        long docs = docsIndexed.get();
+        double rate = now == lastRateTime ? 0 : (docs - lastRateDocs) * 1000000000.0 / (now - lastRateTime);
+        lastRateDocs = docs;
+        lastRateTime = now;
+        return rate;
+    }
+
+    public Histogram getQueryLatency() {
+        return queryLatency;
+    }
+
+    public Histogram getRefreshLatency() {
+        return refreshLatency;
+    }
+
+    public Histogram getWarmLatency() {
+        return warmLatency;
+    }
+
+    public Histogram getAcquireLatency() {
+        return acquireLatency;
+    }
+
+    public Histogram getWriterLockWait() {
+        return writerLockWait;
+    }
+
+    public Histogram getIndexLatency() {
+        return indexLatency;
+    }
+
+    public Histogram getCommitLatency() {
+        return commitLatency;
+    }
+
+    public Histogram getFlushLatency() {
+        return flushLatency;
+    }
+
+    public Histogram getMergeLatency() {
+        return mergeLatency;
+    }
+
+    /**
+     * @return 各直方图的名称，与get方法一一对应，用作JMX的name属性
+     */
+    String[] histogramNames() {
+        return new String[] { "queryLatency", "refreshLatency", "warmLatency", "acquireLatency", "writerLockWait",
+                "indexLatency", "commitLatency", "flushLatency", "mergeLatency" };
+    }
+
+    Histogram[] histograms() {
+        return new Histogram[] { queryLatency, refreshLatency, warmLatency, acquireLatency, writerLockWait,
+                indexLatency, commitLatency, flushLatency, mergeLatency };
+    }
+
+    @Override
+    public void reset() {
+        queryCount.set(0);
+        queryErrorCount.set(0);
+        docsIndexed.set(0);
+        synchronized (this) {
+            lastRateDocs = 0;
+            lastRateTime = System.nanoTime();
+        }
+        for (Histogram h : histograms()) {
+            h.reset();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(indexPath);
+        sb.append(": queries=").append(getQueryCount()).append(", queryErrors=").append(getQueryErrorCount())
+                .append(", docsIndexed=").append(getDocsIndexed());
+        String[] names = histogramNames();
+        Histogram[] hs = histograms();
+        for (int i = 0; i < hs.length; i++) {
+            sb.append("\n  ").append(names[i]).append(": ").append(hs[i]);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,22 @@
+package com.smikevon.lucene.metrics;
+
+/**
+ *
+ * 通过JMX暴露的单个索引的计数器，各项耗时分布另以Histogram注册
+ */
+public interface IndexMetricsMBean {
+    String getIndexPath();
+
+    long getQueryCount();
+
+    long getQueryErrorCount();
+
+    long getDocsIndexed();
+
+    /**
+     * @return 距上次调用该方法期间平均每秒写入的文档数
+     */
+    double getDocsIndexedPerSecond();
+
+    void reset();
+}
@@ -0,0 +1,65 @@
+package com.smikevon.lucene.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ * 按indexPath登记各索引的指标，第一次获取时自动注册到平台MBeanServer:
+ * <p>com.smikevon.lucene:type=IndexMetrics,index="indexPath"<br>
+ * com.smikevon.lucene:type=Histogram,index="indexPath",name=queryLatency ...</p>
+ */
+public class LuceneMetrics {
+    private static Logger log = LoggerFactory.getLogger(LuceneMetrics.class);
+    public static final String DOMAIN = "com.smikevon.lucene";
+
+    private static final ConcurrentMap<String, IndexMetrics> metrics = new ConcurrentHashMap<String, IndexMetrics>();
+
+    private LuceneMetrics() {
+    }
+
+    /**
+     * @param indexPath 索引文件位置
+     * @return 该索引的指标，不存在则创建并注册到JMX
+     */
+    public static IndexMetrics get(String indexPath) {
+        IndexMetrics m = metrics.get(indexPath);
+        if (m == null) {
+            IndexMetrics created = new IndexMetrics(indexPath);
+            m = metrics.putIfAbsent(indexPath, created);
+            if (m == null) {
+                m = created;
+                register(m);
+            }
+        }
+        return m;
+    }
+
+    public static Collection<IndexMetrics> all() {
+        return metrics.values();
+    }
+
+    private static void register(IndexMetrics m) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            String index = ObjectName.quote(m.getIndexPath());
+            server.registerMBean(m, new ObjectName(DOMAIN + ":type=IndexMetrics,index=" + index));
+            String[] names = m.histogramNames();
+            Histogram[] hs = m.histograms();
+            for (int i = 0; i < hs.length; i++) {
+                server.registerMBean(hs[i], new ObjectName(DOMAIN + ":type=Histogram,index=" + index + ",name="
+                        + names[i]));
+            }
+        } catch (Exception e) {
+            log.warn("register metrics mbean failed for " + m.getIndexPath(), e);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.smikevon.lucene.metrics;
+
+import java.io.IOException;
+
+import org.apache.lucene.util.InfoStream;
+
+/**
+ *
+ * 从IndexWriter的InfoStream中统计flush的耗时。只打开DWPT组件(每次flush输出少量消息)，不打开IW，
+ * 避免IndexWriter为每次flush、merge、删除拼接大量调试消息；commit的耗时由AbstractLuceneIndex.commitIndexWriter直接统计，
+ * merge的耗时由MetricsMergeScheduler统计。起止消息都在同一线程上输出，用ThreadLocal记录开始时间。
+ */
+public class MetricsInfoStream extends InfoStream {
+    private final IndexMetrics metrics;
+    private final InfoStream delegate;
+    private final ThreadLocal<long[]> flushStart = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
+    public MetricsInfoStream(IndexMetrics metrics, InfoStream delegate) {
+        this.metrics = metrics;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void message(String component, String message) {
+        if ("DWPT".equals(component)) {
+            if (message.startsWith("flush postings as segment")) {
+                flushStart.get()[0] = System.nanoTime();
+            } else if (message.startsWith("flushed: segment=")) {
+                mark(flushStart.get(), metrics.getFlushLatency());
+            }
+        }
+        if (delegate.isEnabled(component)) {
+            delegate.message(component, message);
+        }
+    }
+
+    private static void mark(long[] start, Histogram histogram) {
+        if (start[0] != 0) {
+            histogram.record(System.nanoTime() - start[0]);
+            start[0] = 0;
+        }
+    }
+
+    @Override
+    public boolean isEnabled(String component) {
+        return "DWPT".equals(component) || delegate.isEnabled(component);
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+}
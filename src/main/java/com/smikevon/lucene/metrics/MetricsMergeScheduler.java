@@ -0,0 +1,28 @@
+package com.smikevon.lucene.metrics;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.MergePolicy;
+
+/**
+ *
+ * 统计每次merge耗时的ConcurrentMergeScheduler
+ */
+public class MetricsMergeScheduler extends ConcurrentMergeScheduler {
+    private final IndexMetrics metrics;
+
+    public MetricsMergeScheduler(IndexMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    protected void doMerge(MergePolicy.OneMerge merge) throws IOException {
+        long t = System.nanoTime();
+        try {
+            super.doMerge(merge);
+        } finally {
+            metrics.getMergeLatency().record(System.nanoTime() - t);
+        }
+    }
+}
@@ -12,32 +12,50 @@ import java.util.Map.Entry;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.cn.smart.SmartChineseAnalyzer;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DocumentStoredFieldVisitor;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexableField;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.sorter.EarlyTerminatingSortingCollector;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
-import org.apache.lucene.search.FuzzyQuery;
+import org.apache.lucene.search.Collector;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.MultiCollector;
 import org.apache.lucene.search.NumericRangeQuery;
 import org.apache.lucene.search.PrefixQuery;
 import org.apache.lucene.search.Query;
-import org.apache.lucene.search.RegexpQuery;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.TermRangeQuery;
 import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.search.WildcardQuery;
-import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.search.TopDocsCollector;
+import org.apache.lucene.search.TopFieldCollector;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.search.TotalHitCountCollector;
+import org.apache.lucene.search.grouping.GroupDocs;
+import org.apache.lucene.search.grouping.GroupingSearch;
+import org.apache.lucene.search.grouping.TopGroups;
+import org.apache.lucene.search.grouping.term.TermAllGroupsCollector;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.Version;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.smikevon.lucene.IndexConfig;
 import com.smikevon.lucene.LuceneConfig;
+import com.smikevon.lucene.index.AbstractLuceneIndex;
+import com.smikevon.lucene.index.IndexLocation;
+import com.smikevon.lucene.index.IndexReplica;
+import com.smikevon.lucene.index.IndexSorter;
+import com.smikevon.lucene.metrics.IndexMetrics;
+import com.smikevon.lucene.metrics.LuceneMetrics;
 import com.smikevon.lucene.search.SearchParam.QueryType;
 /**
  *
@@ -52,6 +70,8 @@ public abstract class AbstractLuceneSearch {
     private Analyzer analyzer = new SmartChineseAnalyzer(Version.LUCENE_43);
     private static Map<String, SearcherManager> smCache = new HashMap<String, SearcherManager>();
     private static Map<String, Long> lastReopen = new HashMap<String, Long>();
+    private static Map<String, String> smDirs = new HashMap<String, String>(); // SearcherManager打开的实际目录
+    private static Map<String, Long> smGenerations = new HashMap<String, Long>(); // reopen前已完成的写入代号
 
     @SuppressWarnings({ "rawtypes", "unchecked" })
     private Map<String, Object> doc2map(Document doc) {
@@ -92,7 +112,7 @@ public abstract class AbstractLuceneSearch {
             return true;
         } else {
             long now = System.currentTimeMillis();
-            if (now - last > LuceneConfig.getReaderReopen() * 1000) {
+            if (now - last > LuceneConfig.getIndexConfig(indexPath).getReaderReopen() * 1000L) {
                 lastReopen.put(indexPath, now);
                 return true;
             } else {
@@ -105,69 +125,119 @@ public abstract class AbstractLuceneSearch {
         lastReopen.put(indexPath, null);
     }
 
-    private static SearcherManager getSearcherManager(String indexPath) throws IOException {
+    /**
+     * @param generation 须看到的写入代号，为0则不等待
+     */
+    private static SearcherManager getSearcherManager(String indexPath, long generation) throws IOException {
+        IndexConfig config = LuceneConfig.getIndexConfig(indexPath);
+        if (config.isNearRealtime()) {
+            NearRealtimeSearcher searcher = NearRealtimeSearcher.get(indexPath);
+            if (generation > 0) {
+                searcher.waitForGeneration(generation);
+            }
+            return searcher.getManager();
+        }
+
         SearcherManager manager;
         synchronized (("smCache."+indexPath).intern()) {
             manager = smCache.get(indexPath);
             if (manager == null) {
-                manager = new SearcherManager(FSDirectory.open(new File(indexPath)), null);
+                String dir = resolve(indexPath);
+                manager = new SearcherManager(LuceneConfig.getIndexConfig(indexPath).newDirectory(new File(dir)),
+                        SearcherWarmer.get(indexPath));
                 smCache.put(indexPath, manager);
+                smDirs.put(indexPath, dir);
             }
         }
-        if (isNeedReopen(indexPath)) {
+        boolean behind = generation > 0 && generation > getSearchingGeneration(indexPath);
+        if (isNeedReopen(indexPath) || behind) {
             long t1 = System.nanoTime();
-            manager.maybeRefresh();
+            long written = AbstractLuceneIndex.getGeneration(indexPath);
+            String dir = resolve(indexPath);
+            if (!dir.equals(smDirs.get(indexPath))) {
+                manager = switchSearcherManager(indexPath, dir);
+            } else if (behind) {
+                manager.maybeRefreshBlocking();
+            } else {
+                manager.maybeRefresh();
+            }
+            synchronized (smGenerations) {
+                if (written > getSearchingGeneration(indexPath)) {
+                    smGenerations.put(indexPath, written);
+                }
+            }
             long t2 = System.nanoTime();
+            LuceneMetrics.get(indexPath).getRefreshLatency().record(t2 - t1);
             log.debug("maybeReopen cost:{} ms", (t2 - t1) * 1.0 / 1000000);
         }
 
         return manager;
     }
 
-    private SearchResult search(Query query, SearchParam param) {
-        IndexSearcher s = null;
-        SearcherManager sm = null;
-        try {
-            sm = getSearcherManager(indexPath);
-            s = sm.acquire();
+    /**
+     * @return 查询打开的目录，设置了IndexConfig.setReplica时为本地副本
+     */
+    private static String resolve(String indexPath) {
+        if (LuceneConfig.getIndexConfig(indexPath).getReplicaPath() != null) {
+            return IndexReplica.resolve(indexPath);
+        }
+        return IndexLocation.resolve(indexPath);
+    }
 
-            TopDocs results = null;
-            SortField[] sortArr = param.getSortFields();
-            if (param.getPageSize() == 0) { //特殊状态，可用于快速查询总数
-                results = s.search(query, 1);
-            } else {
-                if (sortArr.length > 0)
-                    results = s.search(query, param.getStartIndex() + param.getPageSize(), new Sort(sortArr));
-                else
-                    results = s.search(query, param.getStartIndex() + param.getPageSize());
-            }
+    private static long getSearchingGeneration(String indexPath) {
+        synchronized (smGenerations) {
+            Long generation = smGenerations.get(indexPath);
+            return generation == null ? 0 : generation;
+        }
+    }
 
-            if (null == results) {
-                return new SearchResult();
+    /**
+     * 蓝绿重建后indexPath已指向新目录，在新目录上打开SearcherManager替换原来的，并关闭原来的；
+     * 正在使用原searcher的查询不受影响，全部release后原reader才关闭
+     */
+    private static SearcherManager switchSearcherManager(String indexPath, String dir) throws IOException {
+        SearcherManager old;
+        SearcherManager manager;
+        synchronized (("smCache."+indexPath).intern()) {
+            old = smCache.get(indexPath);
+            if (dir.equals(smDirs.get(indexPath))) {
+                return old; // 其它线程已切换
             }
-            ScoreDoc[] hits = results.scoreDocs;
-            int totalCount = results.totalHits;
+            manager = new SearcherManager(LuceneConfig.getIndexConfig(indexPath).newDirectory(new File(dir)),
+                    SearcherWarmer.get(indexPath));
+            smCache.put(indexPath, manager);
+            smDirs.put(indexPath, dir);
+        }
+        log.info("{} switched searcher to {}", indexPath, dir);
+        if (old != null) {
+            old.close();
+        }
+        return manager;
+    }
 
-            List<Map<String, Object>> result = new ArrayList<Map<String, Object>>();
-            if (param.getPageSize() == 0) {
-                return new SearchResult(param.getStartIndex(), param.getPageSize(), totalCount, result);
+    private SearchResult search(Query query, SearchParam param, SearchProfile profile) {
+        IndexSearcher s = null;
+        SearcherManager sm = null;
+        try {
+            long t = System.nanoTime();
+            long t1;
+            try {
+                sm = getSearcherManager(indexPath, param.getGeneration());
+                t1 = System.nanoTime();
+                s = sm.acquire();
+            } catch (AlreadyClosedException e) {
+                // 取得sm后索引被切换或writer被关闭，原sm已关闭
+                sm = getSearcherManager(indexPath, param.getGeneration());
+                t1 = System.nanoTime();
+                s = sm.acquire();
             }
-            int start = param.getStartIndex();
-            int end = 0;
-            if (start < hits.length) {
-                for (int i = 0; i < hits.length; i++) {
-                    if (i < start)
-                        continue;
-                    Document doc = s.doc(hits[i].doc);
-                    Map<String, Object> map = doc2map(doc);
-                    result.add(map);
-                    end = i;
-                }
-                log.debug("getResult from {} to {},totalCount:{}", new Object[] { start, end, totalCount });
-            } else {
-                log.debug("range out of result ,totalCount:{}", totalCount);
+            long t2 = System.nanoTime();
+            LuceneMetrics.get(indexPath).getAcquireLatency().record(t2 - t1);
+            profile.setRefreshNanos(t2 - t);
+            if (s.getIndexReader() instanceof DirectoryReader) {
+                profile.setReaderVersion(((DirectoryReader) s.getIndexReader()).getVersion());
             }
-            return new SearchResult(param.getStartIndex(), param.getPageSize(), totalCount, result);
+            return search(s, query, param, profile);
         } catch (Exception e) {
             throw new LuceneSearchException(e);
         } finally {
@@ -182,6 +252,161 @@ public abstract class AbstractLuceneSearch {
         }
     }
 
+    /**
+     * 打开indexPath的searcher，设置了IndexConfig.setWarming等预热项时返回前已完成预热；
+     * 应用启动时调用，使第一个用户查询不必等待打开和预热
+     */
+    public static void warmUp(String indexPath) {
+        try {
+            getSearcherManager(indexPath, 0);
+        } catch (IOException e) {
+            throw new LuceneSearchException(e);
+        }
+    }
+
+    /**
+     * 在还没有发布的searcher s上执行预热查询，不计入查询指标
+     */
+    SearchResult warm(IndexSearcher s, SearchParam param) throws IOException, ParseException {
+        return search(s, getQuery(param), param, new SearchProfile(false));
+    }
+
+    /**
+     * 在searcher s上执行查询
+     */
+    private SearchResult search(IndexSearcher s, Query query, SearchParam param, SearchProfile profile)
+            throws IOException {
+        long t = System.nanoTime();
+        Query rewritten = s.rewrite(query);
+        profile.setRewriteNanos(System.nanoTime() - t);
+        if (profile.isDetailed()) {
+            profile.countExpandedTerms(s.getIndexReader(), query);
+        }
+
+        if (param.getGroupField() != null) {
+            return searchGroups(s, rewritten, param, profile);
+        }
+
+        boolean totalCountExact = true;
+        SortField[] sortArr = param.getSortFields();
+        SortField indexSort = LuceneConfig.getIndexSort(indexPath);
+        // 与IndexSearcher.search(Query,int)一致，收集数不超过maxDoc
+        int numHits = Math.min(param.getStartIndex() + param.getPageSize(), Math.max(1, s.getIndexReader().maxDoc()));
+        TopDocsCollector<?> topCollector;
+        Collector collector;
+        if (param.getPageSize() == 0) { //特殊状态，可用于快速查询总数
+            topCollector = TopScoreDocCollector.create(1, false);
+            collector = topCollector;
+        } else if (indexSort != null && sortArr.length == 1 && indexSort.equals(sortArr[0])) {
+            // 查询排序与索引排序一致，有序segment只需收集前N个文档
+            topCollector = TopFieldCollector.create(new Sort(sortArr), numHits, true, false, false, true);
+            collector = new EarlyTerminatingSortingCollector(topCollector, new IndexSorter(indexSort), numHits);
+            totalCountExact = false;
+        } else if (sortArr.length > 0) {
+            topCollector = TopFieldCollector.create(new Sort(sortArr), numHits, true, false, false, false);
+            collector = topCollector;
+        } else {
+            topCollector = TopScoreDocCollector.create(numHits, false);
+            collector = topCollector;
+        }
+        if (profile.isDetailed()) {
+            collector = profile.wrap(collector);
+        }
+
+        t = System.nanoTime();
+        s.search(rewritten, collector);
+        profile.setCollectNanos(System.nanoTime() - t);
+
+        t = System.nanoTime();
+        TopDocs results = topCollector.topDocs();
+        profile.setSortNanos(System.nanoTime() - t);
+
+        ScoreDoc[] hits = results.scoreDocs;
+        int totalCount = results.totalHits;
+
+        List<Map<String, Object>> result = new ArrayList<Map<String, Object>>();
+        if (param.getPageSize() == 0) {
+            return new SearchResult(param.getStartIndex(), param.getPageSize(), totalCount, result);
+        }
+        int start = param.getStartIndex();
+        int end = 0;
+        if (start < hits.length) {
+            t = System.nanoTime();
+            for (int i = 0; i < hits.length; i++) {
+                if (i < start)
+                    continue;
+                Map<String, Object> map = loadDoc(s, hits[i].doc, profile);
+                result.add(map);
+                end = i;
+            }
+            profile.setFetchNanos(System.nanoTime() - t);
+            log.debug("getResult from {} to {},totalCount:{}", new Object[] { start, end, totalCount });
+        } else {
+            log.debug("range out of result ,totalCount:{}", totalCount);
+        }
+        SearchResult searchResult = new SearchResult(param.getStartIndex(), param.getPageSize(), totalCount, result);
+        searchResult.setTotalCountExact(totalCountExact);
+        return searchResult;
+    }
+
+    private Map<String, Object> loadDoc(IndexSearcher s, int doc, SearchProfile profile) throws IOException {
+        profile.addDocsFetched(1);
+        if (profile.isDetailed()) {
+            DocumentStoredFieldVisitor visitor = profile.newVisitor();
+            s.doc(doc, visitor);
+            return doc2map(visitor.getDocument());
+        }
+        return doc2map(s.doc(doc));
+    }
+
+    /**
+     * 按分组属性在各segment的ord上折叠结果，查询只执行一次(第二轮从缓存回放)，只读取当前页分组内文档的存储属性
+     */
+    private SearchResult searchGroups(IndexSearcher s, Query query, SearchParam param, SearchProfile profile)
+            throws IOException {
+        String groupField = param.getGroupField();
+        long t = System.nanoTime();
+        if (param.getPageSize() == 0) { //特殊状态，只查询分组总数
+            TermAllGroupsCollector allGroups = new TermAllGroupsCollector(groupField);
+            TotalHitCountCollector hitCount = new TotalHitCountCollector();
+            Collector collector = MultiCollector.wrap(allGroups, hitCount);
+            s.search(query, profile.isDetailed() ? profile.wrap(collector) : collector);
+            profile.setCollectNanos(System.nanoTime() - t);
+            return new SearchResult(param.getStartIndex(), param.getPageSize(), allGroups.getGroupCount(),
+                    hitCount.getTotalHits(), new ArrayList<SearchGroup>());
+        }
+
+        SortField[] sortArr = param.getSortFields();
+        Sort sort = sortArr.length > 0 ? new Sort(sortArr) : Sort.RELEVANCE;
+        GroupingSearch grouping = new GroupingSearch(groupField);
+        grouping.setGroupSort(sort);
+        grouping.setSortWithinGroup(sort);
+        grouping.setGroupDocsLimit(Math.max(1, param.getGroupDocsLimit()));
+        grouping.setAllGroups(true);
+        grouping.setCachingInMB(LuceneConfig.getGroupCacheMB(), true);
+
+        TopGroups<BytesRef> topGroups = grouping.search(s, query, param.getStartIndex(), param.getPageSize());
+        int totalGroupCount = topGroups.totalGroupCount != null ? topGroups.totalGroupCount : grouping
+                .getAllMatchingGroups().size();
+        profile.setCollectNanos(System.nanoTime() - t);
+
+        t = System.nanoTime();
+        List<SearchGroup> groups = new ArrayList<SearchGroup>(topGroups.groups.length);
+        for (GroupDocs<BytesRef> group : topGroups.groups) {
+            List<Map<String, Object>> docs = new ArrayList<Map<String, Object>>(group.scoreDocs.length);
+            for (ScoreDoc sd : group.scoreDocs) {
+                docs.add(loadDoc(s, sd.doc, profile));
+            }
+            String value = group.groupValue == null ? null : group.groupValue.utf8ToString();
+            groups.add(new SearchGroup(value, group.totalHits, docs));
+        }
+        profile.setFetchNanos(System.nanoTime() - t);
+        log.debug("getGroups from {},groups:{},totalGroupCount:{}", new Object[] { param.getStartIndex(),
+                groups.size(), totalGroupCount });
+        return new SearchResult(param.getStartIndex(), param.getPageSize(), totalGroupCount, topGroups.totalHitCount,
+                groups);
+    }
+
     public AbstractLuceneSearch(String indexPath) {
         this.indexPath = indexPath;
     }
@@ -199,7 +424,7 @@ public abstract class AbstractLuceneSearch {
                 break;
             case FUZZY:
                 term = new Term(propName, String.valueOf(value));
-                propQuery = new FuzzyQuery(term);
+                propQuery = AutomatonCache.fuzzy(term);
                 break;
             case PREFIX:
                 term = new Term(propName, String.valueOf(value));
@@ -207,7 +432,7 @@ public abstract class AbstractLuceneSearch {
                 break;
             case REGEXP:
                 term = new Term(propName, String.valueOf(value));
-                propQuery = new RegexpQuery(term);
+                propQuery = AutomatonCache.regexp(term);
                 break;
             case TEXT_RANGE:
                 String[] range = (String[]) value;
@@ -267,7 +492,7 @@ public abstract class AbstractLuceneSearch {
             default:
             case WILDCARD:
                 term = new Term(propName, String.valueOf(value));
-                propQuery = new WildcardQuery(term);
+                propQuery = AutomatonCache.wildcard(term);
                 break;
         }
         return propQuery;
@@ -330,13 +555,32 @@ public abstract class AbstractLuceneSearch {
 
     public SearchResult query(SearchParam param) {
         SearchResult results;
+        SearchProfile profile = new SearchProfile(param.isProfile());
+        IndexMetrics metrics = LuceneMetrics.get(indexPath);
+        metrics.incQueryCount();
+        long t = System.nanoTime();
+        long elapsed;
         try {
             Query query = getQuery(param);
+            profile.setBuildNanos(System.nanoTime() - t);
             log.debug(query.toString());
-            results = search(query, param);
+            results = search(query, param, profile);
+            SearcherWarmer.record(indexPath, param);
         } catch (Exception e) {
+            metrics.incQueryErrorCount();
             log.error(e.getMessage(), e);
             throw new LuceneSearchException(e);
+        } finally {
+            elapsed = System.nanoTime() - t;
+            metrics.getQueryLatency().record(elapsed);
+        }
+        long threshold = LuceneConfig.getSlowQueryThreshold(indexPath);
+        if (threshold >= 0 && elapsed >= threshold * 1000000) {
+            SlowQueryLog.log(indexPath, param, profile, results.getTotalHitCount(), elapsed);
+        }
+        if (param.isProfile()) {
+            results.setProfile(profile);
+            log.debug("profile:{}", profile);
         }
         return results;
     }
@@ -0,0 +1,267 @@
+package com.smikevon.lucene.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.FuzzyQuery;
+import org.apache.lucene.search.FuzzyTermsEnum.LevenshteinAutomataAttribute;
+import org.apache.lucene.search.MultiTermQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.WildcardQuery;
+import org.apache.lucene.util.AttributeSource;
+import org.apache.lucene.util.ToStringUtils;
+import org.apache.lucene.util.automaton.Automaton;
+import org.apache.lucene.util.automaton.AutomatonProvider;
+import org.apache.lucene.util.automaton.CompiledAutomaton;
+import org.apache.lucene.util.automaton.LevenshteinAutomata;
+import org.apache.lucene.util.automaton.RegExp;
+
+import com.smikevon.lucene.LuceneConfig;
+import com.smikevon.lucene.search.SearchParam.QueryType;
+
+/**
+ *
+ * 缓存FUZZY、REGEXP、WILDCARD查询编译后的自动机
+ *
+ * <p>自动机只与查询方式、查询值和编辑距离有关，与属性名和索引无关，因此在所有索引、所有reader之间共享。
+ * 缓存容量由{@link LuceneConfig#setAutomatonCacheSize(int)}控制，超出后淘汰最久未使用的条目。</p>
+ *
+ */
+public class AutomatonCache {
+    private static final AutomatonProvider NONE_PROVIDER = new AutomatonProvider() {
+        @Override
+        public Automaton getAutomaton(String name) {
+            return null;
+        }
+    };
+
+    private static final Map<String, Object> cache = new LinkedHashMap<String, Object>(16, 0.75f, true) {
+        private static final long serialVersionUID = -3283740457453516476L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+            return size() > LuceneConfig.getAutomatonCacheSize();
+        }
+    };
+
+    private static final AtomicLong hitCount = new AtomicLong();
+    private static final AtomicLong missCount = new AtomicLong();
+
+    private AutomatonCache() {
+    }
+
+    /**
+     * 返回与WildcardQuery等价、但复用已编译自动机的查询
+     * @param term 查询的属性名及通配符表达式
+     * @return 查询对象
+     */
+    public static Query wildcard(Term term) {
+        String key = key(QueryType.WILDCARD, term.text(), 0);
+        CompiledAutomaton compiled = (CompiledAutomaton) get(key);
+        if (compiled == null) {
+            compiled = new CompiledAutomaton(WildcardQuery.toAutomaton(term));
+            put(key, compiled);
+        }
+        return new CompiledAutomatonQuery(term, compiled, QueryType.WILDCARD);
+    }
+
+    /**
+     * 返回与RegexpQuery等价、但复用已编译自动机的查询
+     * @param term 查询的属性名及正则表达式
+     * @return 查询对象
+     */
+    public static Query regexp(Term term) {
+        String key = key(QueryType.REGEXP, term.text(), 0);
+        CompiledAutomaton compiled = (CompiledAutomaton) get(key);
+        if (compiled == null) {
+            compiled = new CompiledAutomaton(new RegExp(term.text(), RegExp.ALL).toAutomaton(NONE_PROVIDER));
+            put(key, compiled);
+        }
+        return new CompiledAutomatonQuery(term, compiled, QueryType.REGEXP);
+    }
+
+    /**
+     * 返回与FuzzyQuery等价、但复用已编译Levenshtein自动机的查询
+     * @param term 查询的属性名及查询值
+     * @return 查询对象
+     */
+    public static Query fuzzy(Term term) {
+        return fuzzy(term, FuzzyQuery.defaultMaxEdits);
+    }
+
+    /**
+     * 返回与FuzzyQuery等价、但复用已编译Levenshtein自动机的查询
+     * @param term 查询的属性名及查询值
+     * @param maxEdits 最大编辑距离，0到LevenshteinAutomata.MAXIMUM_SUPPORTED_DISTANCE(2)
+     * @return 查询对象
+     * @throws IllegalArgumentException maxEdits超出范围，与FuzzyQuery相同
+     */
+    @SuppressWarnings("unchecked")
+    public static Query fuzzy(Term term, int maxEdits) {
+        if (maxEdits < 0 || maxEdits > LevenshteinAutomata.MAXIMUM_SUPPORTED_DISTANCE) {
+            throw new IllegalArgumentException("maxEdits must be between 0 and "
+                    + LevenshteinAutomata.MAXIMUM_SUPPORTED_DISTANCE);
+        }
+        String key = key(QueryType.FUZZY, term.text(), maxEdits);
+        List<CompiledAutomaton> automata = (List<CompiledAutomaton>) get(key);
+        if (automata == null) {
+            LevenshteinAutomata builder = new LevenshteinAutomata(term.text(), FuzzyQuery.defaultTranspositions);
+            List<CompiledAutomaton> list = new ArrayList<CompiledAutomaton>(maxEdits + 1);
+            for (int i = 0; i <= maxEdits; i++) {
+                list.add(new CompiledAutomaton(builder.toAutomaton(i), true, false));
+            }
+            automata = Collections.unmodifiableList(list);
+            put(key, automata);
+        }
+        return new CachedFuzzyQuery(term, maxEdits, automata);
+    }
+
+    private static String key(QueryType type, String pattern, int maxEdits) {
+        return type.name() + '/' + maxEdits + '/' + pattern;
+    }
+
+    private static Object get(String key) {
+        Object value;
+        synchronized (cache) {
+            value = cache.get(key);
+        }
+        if (value == null) {
+            missCount.incrementAndGet();
+        } else {
+            hitCount.incrementAndGet();
+        }
+        return value;
+    }
+
+    private static void put(String key, Object value) {
+        synchronized (cache) {
+            cache.put(key, value);
+        }
+    }
+
+    /**
+     * @return 命中次数
+     */
+    public static long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return 未命中次数
+     */
+    public static long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return 命中率，尚无请求时返回0
+     */
+    public static double getHitRate() {
+        long hit = hitCount.get();
+        long total = hit + missCount.get();
+        return total == 0 ? 0 : hit * 1.0 / total;
+    }
+
+    /**
+     * @return 当前缓存的自动机个数
+     */
+    public static int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * 清空缓存及命中统计
+     */
+    public static void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+        hitCount.set(0);
+        missCount.set(0);
+    }
+
+    /**
+     * 直接使用已编译自动机枚举term的查询，行为与AutomatonQuery一致
+     */
+    static class CompiledAutomatonQuery extends MultiTermQuery {
+        private final Term term;
+        private final CompiledAutomaton compiled;
+        private final QueryType type;
+
+        CompiledAutomatonQuery(Term term, CompiledAutomaton compiled, QueryType type) {
+            super(term.field());
+            this.term = term;
+            this.compiled = compiled;
+            this.type = type;
+        }
+
+        public Term getTerm() {
+            return term;
+        }
+
+        @Override
+        protected TermsEnum getTermsEnum(Terms terms, AttributeSource atts) throws IOException {
+            return compiled.getTermsEnum(terms);
+        }
+
+        @Override
+        public String toString(String field) {
+            StringBuilder buffer = new StringBuilder();
+            if (!term.field().equals(field)) {
+                buffer.append(term.field());
+                buffer.append(":");
+            }
+            if (type == QueryType.REGEXP) {
+                buffer.append('/').append(term.text()).append('/');
+            } else {
+                buffer.append(term.text());
+            }
+            buffer.append(ToStringUtils.boost(getBoost()));
+            return buffer.toString();
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * super.hashCode() + term.hashCode()) + type.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!super.equals(obj))
+                return false;
+            CompiledAutomatonQuery other = (CompiledAutomatonQuery) obj;
+            return type == other.type && term.equals(other.term);
+        }
+    }
+
+    /**
+     * 在枚举term前把缓存的Levenshtein自动机放入共享属性中，FuzzyTermsEnum发现已有自动机时不会再重新构造
+     */
+    static class CachedFuzzyQuery extends FuzzyQuery {
+        private final List<CompiledAutomaton> automata;
+
+        CachedFuzzyQuery(Term term, int maxEdits, List<CompiledAutomaton> automata) {
+            super(term, maxEdits);
+            this.automata = automata;
+        }
+
+        @Override
+        protected TermsEnum getTermsEnum(Terms terms, AttributeSource atts) throws IOException {
+            List<CompiledAutomaton> shared = atts.addAttribute(LevenshteinAutomataAttribute.class).automata();
+            if (shared.isEmpty()) {
+                shared.addAll(automata);
+            }
+            return super.getTermsEnum(terms, atts);
+        }
+    }
+}
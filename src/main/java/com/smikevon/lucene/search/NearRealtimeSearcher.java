@@ -0,0 +1,136 @@
+package com.smikevon.lucene.search;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.smikevon.lucene.LuceneConfig;
+import com.smikevon.lucene.index.AbstractLuceneIndex;
+import com.smikevon.lucene.index.LuceneIndexException;
+import com.smikevon.lucene.metrics.LuceneMetrics;
+
+/**
+ *
+ * 从本进程缓存的IndexWriter打开的近实时searcher，由后台线程按IndexConfig.setNearRealtime的间隔刷新。
+ * 缓存的writer被更换(蓝绿切换、关闭)后，下一次查询在新writer上重新打开
+ *
+ */
+class NearRealtimeSearcher implements Runnable {
+    private static Logger log = LoggerFactory.getLogger(NearRealtimeSearcher.class);
+    private static final Map<String, NearRealtimeSearcher> searchers = new HashMap<String, NearRealtimeSearcher>();
+    private static ScheduledExecutorService executor;
+
+    private final String indexPath;
+    private final IndexWriter writer;
+    private final SearcherManager manager;
+    private ScheduledFuture<?> task;
+    private volatile long searchingGeneration; // 当前searcher已包含的写入代号
+
+    private NearRealtimeSearcher(String indexPath, IndexWriter writer) throws IOException {
+        this.indexPath = indexPath;
+        this.writer = writer;
+        this.searchingGeneration = AbstractLuceneIndex.getGeneration(indexPath);
+        this.manager = new SearcherManager(writer, true, SearcherWarmer.getNearRealtime(indexPath));
+    }
+
+    /**
+     * @return indexPath当前缓存的writer上的近实时searcher，writer还没有打开时打开
+     */
+    static NearRealtimeSearcher get(String indexPath) throws IOException {
+        IndexWriter writer = AbstractLuceneIndex.getCachedIndexWriter(indexPath);
+        if (writer == null) {
+            try {
+                writer = AbstractLuceneIndex.getIndexWriter(indexPath);
+            } catch (LuceneIndexException e) {
+                throw new IOException(e);
+            }
+        }
+        NearRealtimeSearcher old;
+        NearRealtimeSearcher searcher;
+        synchronized (searchers) {
+            old = searchers.get(indexPath);
+            if (old != null && old.writer == writer) {
+                return old;
+            }
+            if (executor == null) {
+                executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "nrt-refresh");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+            }
+            searcher = new NearRealtimeSearcher(indexPath, writer);
+            long interval = LuceneConfig.getIndexConfig(indexPath).getNearRealtimeInterval();
+            searcher.task = executor.scheduleWithFixedDelay(searcher, interval, interval, TimeUnit.MILLISECONDS);
+            searchers.put(indexPath, searcher);
+        }
+        if (old != null) {
+            log.info("{} reopened near-realtime searcher on new writer", indexPath);
+            old.close();
+        }
+        return searcher;
+    }
+
+    SearcherManager getManager() {
+        return manager;
+    }
+
+    /**
+     * 当前searcher还没有包含代号为generation的写入时立即刷新
+     */
+    void waitForGeneration(long generation) throws IOException {
+        if (generation > AbstractLuceneIndex.getGeneration(indexPath)) {
+            throw new IllegalArgumentException("generation " + generation + " of " + indexPath + " not written yet");
+        }
+        if (searchingGeneration < generation) {
+            refresh();
+        }
+    }
+
+    /**
+     * 刷新前记录已完成的写入代号，刷新后的searcher包含这些写入
+     */
+    private void refresh() throws IOException {
+        long generation = AbstractLuceneIndex.getGeneration(indexPath);
+        long t1 = System.nanoTime();
+        manager.maybeRefreshBlocking();
+        LuceneMetrics.get(indexPath).getRefreshLatency().record(System.nanoTime() - t1);
+        synchronized (this) {
+            if (generation > searchingGeneration) {
+                searchingGeneration = generation;
+            }
+        }
+    }
+
+    public void run() {
+        try {
+            refresh();
+        } catch (AlreadyClosedException e) {
+            // writer已关闭，下一次查询时在新writer上重新打开
+        } catch (Throwable e) {
+            log.error(indexPath + " near-realtime refresh failed", e);
+        }
+    }
+
+    private void close() {
+        task.cancel(false);
+        try {
+            manager.close(); // 正在使用的searcher全部release后才关闭
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+        }
+    }
+}
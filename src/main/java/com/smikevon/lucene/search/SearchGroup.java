@@ -0,0 +1,41 @@
+package com.smikevon.lucene.search;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ *
+ * 表示分组查询结果中一个分组的类
+ */
+public class SearchGroup {
+	private String groupValue;
+	private int totalHits;
+	private List<Map<String, Object>> docs;
+
+	public SearchGroup(String groupValue, int totalHits, List<Map<String, Object>> docs) {
+		this.groupValue = groupValue;
+		this.totalHits = totalHits;
+		this.docs = docs;
+	}
+
+	/**
+	 * @return 分组属性的值,文档没有该属性时为null
+	 */
+	public String getGroupValue() {
+		return groupValue;
+	}
+
+	/**
+	 * @return 该分组内符合查询条件的文档总数
+	 */
+	public int getTotalHits() {
+		return totalHits;
+	}
+
+	/**
+	 * @return 该分组内排在前面的文档,最多为groupBy时指定的docsPerGroup个
+	 */
+	public List<Map<String, Object>> getDocs() {
+		return docs;
+	}
+}
@@ -1,9 +1,16 @@
 package com.smikevon.lucene.search;
 
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
 
 import org.apache.lucene.search.SortField;
 
@@ -12,11 +19,13 @@ import com.google.common.collect.Multimap;
 
 /**
  *
- * 表示查询条件的类
+ * 表示查询条件的类，可序列化(用于持久化预热查询)，排序字段只保存属性名、类型和顺序，使用自定义比较器的排序字段不能序列化
  * @author huangbin
  *
  */
-public class SearchParam {
+public class SearchParam implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     private Multimap<String, Object> mustParam = HashMultimap.create();
     private Multimap<String, Object> includeParam = HashMultimap.create();
     private Multimap<String, Object> excludeParam = HashMultimap.create();
@@ -28,7 +37,11 @@ public class SearchParam {
     private Map<String, boolean[]> queryRange = new HashMap<String, boolean[]>();
     private int start;
     private int pageSize;
-    private List<SortField> sortFields = new ArrayList<SortField>();
+    private transient List<SortField> sortFields = new ArrayList<SortField>();
+    private String groupField;
+    private int groupDocsLimit;
+    private boolean profile;
+    private long generation;
 
     public static enum QueryType {
         ANALYZED, WILDCARD, FUZZY, PREFIX, REGEXP, TEXT_RANGE, LONG_RANGE, DOUBLE_RANGE
@@ -223,6 +236,57 @@ public class SearchParam {
         return this;
     }
 
+    /**
+     * 按属性值对结果分组，每组只占查询结果的一个位置，start和pageSize按分组计算
+     *
+     * @param groupField 分组属性名，应为索引但不分词的单值属性
+     * @param docsPerGroup 每个分组返回的最多文档数
+     * @return 链式返回SearchParam对象
+     */
+    public SearchParam setGroup(String groupField, int docsPerGroup) {
+        this.groupField = groupField;
+        this.groupDocsLimit = docsPerGroup;
+        return this;
+    }
+
+    public String getGroupField() {
+        return groupField;
+    }
+
+    public int getGroupDocsLimit() {
+        return groupDocsLimit;
+    }
+
+    /**
+     * 设置是否统计查询各阶段的耗时，统计结果由SearchResult.getProfile返回
+     *
+     * @param profile 是否统计
+     * @return 链式返回SearchParam对象
+     */
+    public SearchParam setProfile(boolean profile) {
+        this.profile = profile;
+        return this;
+    }
+
+    public boolean isProfile() {
+        return profile;
+    }
+
+    /**
+     * 设置查询须看到的写入代号，见SimpleIndex.getGeneration
+     *
+     * @param generation 写入代号，为0则不等待
+     * @return 链式返回SearchParam对象
+     */
+    public SearchParam setGeneration(long generation) {
+        this.generation = generation;
+        return this;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
     public Multimap<String, Object> getMustParam() {
         return mustParam;
     }
@@ -267,4 +331,85 @@ public class SearchParam {
         return sortFields.toArray(new SortField[0]);
     }
 
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(sortFields.size());
+        for (SortField sf : sortFields) {
+            if (sf.getType() == SortField.Type.CUSTOM || sf.getType() == SortField.Type.REWRITEABLE) {
+                throw new NotSerializableException("custom sort field: " + sf);
+            }
+            out.writeObject(sf.getField());
+            out.writeObject(sf.getType().name());
+            out.writeBoolean(sf.getReverse());
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int n = in.readInt();
+        sortFields = new ArrayList<SortField>(n);
+        for (int i = 0; i < n; i++) {
+            String field = (String) in.readObject();
+            SortField.Type type = SortField.Type.valueOf((String) in.readObject());
+            sortFields.add(new SortField(field, type, in.readBoolean()));
+        }
+    }
+
+    /**
+     * 规范化的查询条件：属性按名称排序、同一属性的值按字符串排序，添加条件的先后顺序不影响结果，
+     * 因而相同的查询总是得到相同的字符串
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        appendParams(sb, "must", mustParam, mustList);
+        appendParams(sb, "include", includeParam, includeList);
+        appendParams(sb, "exclude", excludeParam, excludeList);
+        if (!sortFields.isEmpty()) {
+            sb.append("sort=").append(sortFields).append(' ');
+        }
+        if (groupField != null) {
+            sb.append("group=").append(groupField).append('/').append(groupDocsLimit).append(' ');
+        }
+        sb.append("range=[").append(start).append(',').append(pageSize).append(']');
+        return sb.toString();
+    }
+
+    private void appendParams(StringBuilder sb, String name, Multimap<String, Object> params, List<SearchParam> list) {
+        if (params.isEmpty() && list.isEmpty())
+            return;
+        sb.append(name).append('{');
+        boolean first = true;
+        for (String propName : new TreeSet<String>(params.keySet())) {
+            boolean[] includes = queryRange.get(propName);
+            List<String> values = new ArrayList<String>();
+            for (Object value : params.get(propName)) {
+                if (value instanceof Object[] && includes != null) {
+                    Object[] range = (Object[]) value;
+                    values.add((includes[0] ? "[" : "(") + range[0] + "," + range[1] + (includes[1] ? "]" : ")"));
+                } else {
+                    values.add(String.valueOf(value));
+                }
+            }
+            Collections.sort(values);
+            QueryType qt = queryMethod.get(propName);
+            if (!first)
+                sb.append(", ");
+            first = false;
+            sb.append(propName).append(':').append(qt == null ? QueryType.WILDCARD : qt).append(values);
+        }
+        List<String> subs = new ArrayList<String>();
+        for (SearchParam sp : list) {
+            subs.add("(" + sp.toString() + ")");
+        }
+        Collections.sort(subs);
+        for (String sub : subs) {
+            if (!first)
+                sb.append(", ");
+            first = false;
+            sb.append(sub);
+        }
+        sb.append("} ");
+    }
+
 }
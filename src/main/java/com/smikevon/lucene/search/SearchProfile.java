@@ -0,0 +1,269 @@
+package com.smikevon.lucene.search;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.lucene.document.DocumentStoredFieldVisitor;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.MultiTermQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.util.AttributeSource;
+
+/**
+ *
+ * 单次查询各阶段的耗时及统计，SimpleQuery.profile()打开后随SearchResult返回
+ *
+ * <p>阶段依次为：refresh(获取searcher，可能包含maybeRefresh)、build(getQuery构造查询)、
+ * rewrite(通配符、模糊等查询展开为term)、collect(遍历命中文档)、sort(从优先队列取出结果)、
+ * fetch(读取存储属性并转换为Map)，时间单位均为纳秒(ns)</p>
+ *
+ */
+public class SearchProfile {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final boolean detailed;
+    private long refreshNanos;
+    private long buildNanos;
+    private long rewriteNanos;
+    private long collectNanos;
+    private long sortNanos;
+    private long fetchNanos;
+    private Map<String, Long> expandedTerms = new LinkedHashMap<String, Long>();
+    private int segments;
+    private int hitsCollected;
+    private int docsFetched;
+    private long storedBytes;
+    private long readerVersion = -1;
+
+    /**
+     * @param detailed 为true时才统计term展开数、segment数、收集文档数和存储属性字节数，这些统计本身有开销
+     */
+    public SearchProfile(boolean detailed) {
+        this.detailed = detailed;
+    }
+
+    public boolean isDetailed() {
+        return detailed;
+    }
+
+    /**
+     * 统计查询中每个多term子查询(WILDCARD、FUZZY、PREFIX、REGEXP、范围等)在reader上匹配的term数
+     */
+    public void countExpandedTerms(IndexReader reader, Query query) throws IOException {
+        if (query instanceof BooleanQuery) {
+            for (BooleanClause clause : ((BooleanQuery) query).clauses()) {
+                countExpandedTerms(reader, clause.getQuery());
+            }
+        } else if (query instanceof MultiTermQuery) {
+            TermCounter counter = new TermCounter();
+            counter.rewrite(reader, (MultiTermQuery) query);
+            expandedTerms.put(query.toString(), counter.getCount());
+        }
+    }
+
+    /**
+     * 包装collector，统计访问的segment数及收集的文档数
+     */
+    public Collector wrap(final Collector in) {
+        return new Collector() {
+            @Override
+            public void setScorer(Scorer scorer) throws IOException {
+                in.setScorer(scorer);
+            }
+
+            @Override
+            public void collect(int doc) throws IOException {
+                hitsCollected++;
+                in.collect(doc);
+            }
+
+            @Override
+            public void setNextReader(AtomicReaderContext context) throws IOException {
+                segments++;
+                in.setNextReader(context);
+            }
+
+            @Override
+            public boolean acceptsDocsOutOfOrder() {
+                return in.acceptsDocsOutOfOrder();
+            }
+        };
+    }
+
+    /**
+     * @return 读取文档时累计存储属性字节数的visitor
+     */
+    public DocumentStoredFieldVisitor newVisitor() {
+        return new DocumentStoredFieldVisitor() {
+            @Override
+            public void binaryField(FieldInfo fieldInfo, byte[] value) throws IOException {
+                storedBytes += value.length;
+                super.binaryField(fieldInfo, value);
+            }
+
+            @Override
+            public void stringField(FieldInfo fieldInfo, String value) throws IOException {
+                storedBytes += value.getBytes(UTF8).length;
+                super.stringField(fieldInfo, value);
+            }
+
+            @Override
+            public void intField(FieldInfo fieldInfo, int value) {
+                storedBytes += 4;
+                super.intField(fieldInfo, value);
+            }
+
+            @Override
+            public void longField(FieldInfo fieldInfo, long value) {
+                storedBytes += 8;
+                super.longField(fieldInfo, value);
+            }
+
+            @Override
+            public void floatField(FieldInfo fieldInfo, float value) {
+                storedBytes += 4;
+                super.floatField(fieldInfo, value);
+            }
+
+            @Override
+            public void doubleField(FieldInfo fieldInfo, double value) {
+                storedBytes += 8;
+                super.doubleField(fieldInfo, value);
+            }
+        };
+    }
+
+    public long getRefreshNanos() {
+        return refreshNanos;
+    }
+
+    public void setRefreshNanos(long refreshNanos) {
+        this.refreshNanos = refreshNanos;
+    }
+
+    public long getBuildNanos() {
+        return buildNanos;
+    }
+
+    public void setBuildNanos(long buildNanos) {
+        this.buildNanos = buildNanos;
+    }
+
+    public long getRewriteNanos() {
+        return rewriteNanos;
+    }
+
+    public void setRewriteNanos(long rewriteNanos) {
+        this.rewriteNanos = rewriteNanos;
+    }
+
+    public long getCollectNanos() {
+        return collectNanos;
+    }
+
+    public void setCollectNanos(long collectNanos) {
+        this.collectNanos = collectNanos;
+    }
+
+    public long getSortNanos() {
+        return sortNanos;
+    }
+
+    public void setSortNanos(long sortNanos) {
+        this.sortNanos = sortNanos;
+    }
+
+    public long getFetchNanos() {
+        return fetchNanos;
+    }
+
+    public void setFetchNanos(long fetchNanos) {
+        this.fetchNanos = fetchNanos;
+    }
+
+    public long getTotalNanos() {
+        return refreshNanos + buildNanos + rewriteNanos + collectNanos + sortNanos + fetchNanos;
+    }
+
+    /**
+     * @return 多term子查询与其匹配term数的对应关系
+     */
+    public Map<String, Long> getExpandedTerms() {
+        return expandedTerms;
+    }
+
+    public int getSegments() {
+        return segments;
+    }
+
+    public int getHitsCollected() {
+        return hitsCollected;
+    }
+
+    public int getDocsFetched() {
+        return docsFetched;
+    }
+
+    public void addDocsFetched(int docs) {
+        this.docsFetched += docs;
+    }
+
+    public long getStoredBytes() {
+        return storedBytes;
+    }
+
+    /**
+     * @return 执行查询的reader的版本(DirectoryReader.getVersion)，可与索引的commit对应，未取得searcher时为-1
+     */
+    public long getReaderVersion() {
+        return readerVersion;
+    }
+
+    public void setReaderVersion(long readerVersion) {
+        this.readerVersion = readerVersion;
+    }
+
+    @Override
+    public String toString() {
+        return "refresh=" + refreshNanos + "ns, build=" + buildNanos + "ns, rewrite=" + rewriteNanos + "ns, collect="
+                + collectNanos + "ns, sort=" + sortNanos + "ns, fetch=" + fetchNanos + "ns, total=" + getTotalNanos()
+                + "ns, expandedTerms=" + expandedTerms + ", segments=" + segments + ", hitsCollected="
+                + hitsCollected + ", docsFetched=" + docsFetched + ", storedBytes=" + storedBytes + ", readerVersion="
+                + readerVersion;
+    }
+
+    /**
+     * 统计多term查询匹配的term数的rewrite，rewrite的结果与CONSTANT_SCORE_FILTER_REWRITE相同(只包装为filter，不再枚举term)，
+     * 每次统计使用新的实例
+     */
+    static class TermCounter extends MultiTermQuery.RewriteMethod {
+        private long count;
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public Query rewrite(IndexReader reader, MultiTermQuery query) throws IOException {
+            Terms terms = MultiFields.getTerms(reader, query.getField()); // 合并各segment的词典，每个term只计一次
+            if (terms != null) {
+                TermsEnum termsEnum = getTermsEnum(query, terms, new AttributeSource());
+                while (termsEnum.next() != null) {
+                    count++;
+                }
+            }
+            return MultiTermQuery.CONSTANT_SCORE_FILTER_REWRITE.rewrite(reader, query);
+        }
+    }
+}
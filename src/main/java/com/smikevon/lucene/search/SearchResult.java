@@ -15,6 +15,10 @@ public class SearchResult implements Iterable<Map<String, Object>> {
 	private int pageSize;
 	private int totalCount;
 	private List<Map<String, Object>> result;
+	private int totalHitCount;
+	private List<SearchGroup> groups;
+	private boolean totalCountExact = true;
+	private SearchProfile profile;
 
 	public SearchResult() {
 		result = new ArrayList<Map<String, Object>>();
@@ -29,9 +33,23 @@ public class SearchResult implements Iterable<Map<String, Object>> {
 		}
 		this.pageSize = pageSize;
 		this.totalCount = totalCount;
+		this.totalHitCount = totalCount;
 		this.result = result;
 	}
 
+	/**
+	 * 分组查询的结果,totalCount为分组总数,result中每个分组只有排在最前的一个文档
+	 */
+	public SearchResult(int startIndex, int pageSize, int totalGroupCount, int totalHitCount, List<SearchGroup> groups) {
+		this(startIndex, pageSize, totalGroupCount, new ArrayList<Map<String, Object>>());
+		this.totalHitCount = totalHitCount;
+		this.groups = groups;
+		for (SearchGroup group : groups) {
+			if (group.getDocs().size() > 0)
+				result.add(group.getDocs().get(0));
+		}
+	}
+
 	public int size() {
 		return result.size();
 	}
@@ -67,6 +85,42 @@ public class SearchResult implements Iterable<Map<String, Object>> {
 		return totalCount;
 	}
 
+	/**
+	 * @return 符合查询条件的文档总数,非分组查询时与getTotalCount相同
+	 */
+	public int getTotalHitCount() {
+		return totalHitCount;
+	}
+
+	/**
+	 * @return 分组查询时返回当前页的分组,否则返回null
+	 */
+	public List<SearchGroup> getGroups() {
+		return groups;
+	}
+
+	/**
+	 * @return 总数是否精确。查询排序与索引排序(LuceneConfig.setIndexSort)一致时会提前结束收集，此时总数只是下限
+	 */
+	public boolean isTotalCountExact() {
+		return totalCountExact;
+	}
+
+	public void setTotalCountExact(boolean totalCountExact) {
+		this.totalCountExact = totalCountExact;
+	}
+
+	/**
+	 * @return 查询各阶段的耗时及统计，只有调用了SimpleQuery.profile()才有值，否则为null
+	 */
+	public SearchProfile getProfile() {
+		return profile;
+	}
+
+	public void setProfile(SearchProfile profile) {
+		this.profile = profile;
+	}
+
 	public int getStartIndex() {
 		return startIndex;
 	}
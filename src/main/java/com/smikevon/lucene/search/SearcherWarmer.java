@@ -0,0 +1,385 @@
+package com.smikevon.lucene.search;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.smikevon.lucene.IndexConfig;
+import com.smikevon.lucene.LuceneConfig;
+import com.smikevon.lucene.metrics.LuceneMetrics;
+
+/**
+ *
+ * 新的searcher发布前的预热，作为SearcherManager的SearcherFactory：依次加载IndexConfig中排序属性、分组属性的FieldCache，
+ * 执行固定的预热查询及记录的最近最常用的查询。预热耗时记录在IndexMetrics.getWarmLatency，单个查询失败只记录日志
+ *
+ * <p>近实时的searcher刷新频繁且查询须等待刷新(SimpleQuery.waitFor)，只由getNearRealtime加载排序、分组属性的FieldCache，
+ * 已加载的segment直接命中缓存，只有新的segment需要加载。记录的查询次数每隔DECAY_INTERVAL减半，与刷新频率无关</p>
+ *
+ * <p>记录的查询保存序列化后的副本(SimpleQuery会复用并修改SearchParam)，同一查询只在第一次出现时序列化。
+ * 保存的文件依次为查询数及每个查询的次数、长度、序列化的SearchParam，先写入临时文件再改名</p>
+ *
+ */
+class SearcherWarmer extends SearcherFactory {
+    private static Logger log = LoggerFactory.getLogger(SearcherWarmer.class);
+    private static final Map<String, SearcherWarmer> warmers = new ConcurrentHashMap<String, SearcherWarmer>();
+    private static final long SAVE_INTERVAL = 60000L; // 预热时保存记录的最小间隔，单位为毫秒(ms)
+    private static final long DECAY_INTERVAL = 60000L; // 记录的查询次数减半的最小间隔，单位为毫秒(ms)
+
+    private final String indexPath;
+    private final AbstractLuceneSearch search;
+    private final Map<String, Recorded> recorded = new ConcurrentHashMap<String, Recorded>();
+    private long lastSave;
+    private long lastDecay = System.currentTimeMillis();
+
+    private SearcherWarmer(String indexPath) {
+        this.indexPath = indexPath;
+        this.search = new AbstractLuceneSearch(indexPath) {
+        };
+    }
+
+    /**
+     * @return indexPath的预热器，没有设置IndexConfig.setWarming等预热项时返回null，SearcherManager使用默认的SearcherFactory
+     */
+    static SearcherWarmer get(String indexPath) {
+        if (!LuceneConfig.getIndexConfig(indexPath).isWarming()) {
+            return null;
+        }
+        return getOrCreate(indexPath);
+    }
+
+    /**
+     * @return 近实时searcher的SearcherFactory，只加载排序、分组属性的FieldCache；没有这些属性时返回null
+     */
+    static SearcherFactory getNearRealtime(final String indexPath) {
+        IndexConfig config = LuceneConfig.getIndexConfig(indexPath);
+        if (config.getWarmSortFields().isEmpty() && config.getWarmGroupFields().isEmpty()) {
+            return null;
+        }
+        return new SearcherFactory() {
+            @Override
+            public IndexSearcher newSearcher(IndexReader reader) throws IOException {
+                long t = System.nanoTime();
+                warmFieldCaches(indexPath, reader);
+                LuceneMetrics.get(indexPath).getWarmLatency().record(System.nanoTime() - t);
+                return new IndexSearcher(reader);
+            }
+        };
+    }
+
+    /**
+     * 按segment加载排序、分组属性的FieldCache，已加载的segment命中缓存
+     */
+    private static void warmFieldCaches(String indexPath, IndexReader reader) {
+        IndexConfig config = LuceneConfig.getIndexConfig(indexPath);
+        for (AtomicReaderContext context : reader.leaves()) {
+            AtomicReader leaf = context.reader();
+            for (SortField sortField : config.getWarmSortFields()) {
+                String field = sortField.getField();
+                try {
+                    switch (sortField.getType()) {
+                        case STRING:
+                            FieldCache.DEFAULT.getTermsIndex(leaf, field);
+                            break;
+                        case INT:
+                            FieldCache.DEFAULT.getInts(leaf, field, false);
+                            break;
+                        case LONG:
+                            FieldCache.DEFAULT.getLongs(leaf, field, false);
+                            break;
+                        case FLOAT:
+                            FieldCache.DEFAULT.getFloats(leaf, field, false);
+                            break;
+                        case DOUBLE:
+                            FieldCache.DEFAULT.getDoubles(leaf, field, false);
+                            break;
+                        default:
+                            break; // 按相关度、文档号或自定义比较器排序，不需要或不能预先加载
+                    }
+                } catch (Exception e) {
+                    log.warn(indexPath + " warm sort field " + sortField + " failed", e);
+                }
+            }
+            for (String groupField : config.getWarmGroupFields()) {
+                try {
+                    FieldCache.DEFAULT.getTermsIndex(leaf, groupField);
+                } catch (Exception e) {
+                    log.warn(indexPath + " warm group field " + groupField + " failed", e);
+                }
+            }
+        }
+    }
+
+    private static SearcherWarmer getOrCreate(String indexPath) {
+        SearcherWarmer warmer = warmers.get(indexPath);
+        if (warmer == null) {
+            synchronized (warmers) {
+                warmer = warmers.get(indexPath);
+                if (warmer == null) {
+                    warmer = new SearcherWarmer(indexPath);
+                    warmer.load();
+                    warmers.put(indexPath, warmer);
+                    final SearcherWarmer w = warmer;
+                    Runtime.getRuntime().addShutdownHook(new Thread("searcher-warmer-save") {
+                        @Override
+                        public void run() {
+                            w.save(w.snapshot(false));
+                        }
+                    });
+                }
+            }
+        }
+        return warmer;
+    }
+
+    /**
+     * 记录一次成功的查询，只在设置了IndexConfig.setWarming时记录
+     */
+    static void record(String indexPath, SearchParam param) {
+        int topN = LuceneConfig.getIndexConfig(indexPath).getWarmTopN();
+        if (topN > 0) {
+            getOrCreate(indexPath).add(param, topN);
+        }
+    }
+
+    private void add(SearchParam param, int topN) {
+        String key = param.toString();
+        Recorded r = recorded.get(key);
+        if (r == null) {
+            if (recorded.size() >= Math.max(topN * 10, 100)) {
+                prune(topN * 5);
+            }
+            r = new Recorded(serialize(param), 0);
+            recorded.put(key, r); // 并发时可能覆盖其它线程刚记录的一次，不影响排序
+        }
+        r.count.incrementAndGet();
+    }
+
+    /**
+     * 只保留次数最多的keep个查询
+     */
+    private synchronized void prune(int keep) {
+        List<Map.Entry<String, Recorded>> entries = new ArrayList<Map.Entry<String, Recorded>>(recorded.entrySet());
+        if (entries.size() <= keep) {
+            return;
+        }
+        Collections.sort(entries, new Comparator<Map.Entry<String, Recorded>>() {
+            public int compare(Map.Entry<String, Recorded> o1, Map.Entry<String, Recorded> o2) {
+                long c1 = o1.getValue().count.get(), c2 = o2.getValue().count.get();
+                return c1 > c2 ? -1 : (c1 == c2 ? 0 : 1);
+            }
+        });
+        for (Map.Entry<String, Recorded> e : entries.subList(keep, entries.size())) {
+            recorded.remove(e.getKey());
+        }
+    }
+
+    /**
+     * @param decay 是否将各查询的次数减半，使预热反映最近的查询
+     * @return 次数最多的topN个可序列化的查询(次数为减半前的值)，按次数从多到少排列
+     */
+    private synchronized List<Recorded> snapshot(boolean decay) {
+        int topN = LuceneConfig.getIndexConfig(indexPath).getWarmTopN();
+        List<Recorded> all = new ArrayList<Recorded>();
+        for (Iterator<Recorded> it = recorded.values().iterator(); it.hasNext();) {
+            Recorded r = it.next();
+            long count = r.count.get();
+            if (r.bytes != null && count > 0) {
+                all.add(new Recorded(r.bytes, count));
+            }
+            if (decay && r.count.addAndGet(-(count - count / 2)) <= 0) {
+                it.remove();
+            }
+        }
+        Collections.sort(all, new Comparator<Recorded>() {
+            public int compare(Recorded o1, Recorded o2) {
+                long c1 = o1.count.get(), c2 = o2.count.get();
+                return c1 > c2 ? -1 : (c1 == c2 ? 0 : 1);
+            }
+        });
+        return all.size() > topN ? new ArrayList<Recorded>(all.subList(0, topN)) : all;
+    }
+
+    @Override
+    public IndexSearcher newSearcher(IndexReader reader) throws IOException {
+        IndexSearcher s = new IndexSearcher(reader);
+        IndexConfig config = LuceneConfig.getIndexConfig(indexPath);
+        long t = System.nanoTime();
+        for (SortField sortField : config.getWarmSortFields()) {
+            try {
+                s.search(new MatchAllDocsQuery(), 1, new Sort(sortField));
+            } catch (Exception e) {
+                log.warn(indexPath + " warm sort field " + sortField + " failed", e);
+            }
+        }
+        for (String groupField : config.getWarmGroupFields()) {
+            for (AtomicReaderContext context : reader.leaves()) {
+                FieldCache.DEFAULT.getTermsIndex(context.reader(), groupField);
+            }
+        }
+        int queries = 0;
+        for (SearchParam param : config.getWarmQueries()) {
+            queries += warm(s, param) ? 1 : 0;
+        }
+        long now = System.currentTimeMillis();
+        boolean decay = now - lastDecay >= DECAY_INTERVAL;
+        if (decay) {
+            lastDecay = now;
+        }
+        List<Recorded> top = snapshot(decay);
+        for (Recorded r : top) {
+            SearchParam param = deserialize(r.bytes);
+            queries += param != null && warm(s, param) ? 1 : 0;
+        }
+        long elapsed = System.nanoTime() - t;
+        LuceneMetrics.get(indexPath).getWarmLatency().record(elapsed);
+        log.debug("{} warmed searcher with {} queries in {} ms", new Object[] { indexPath, queries,
+                elapsed / 1000000.0 });
+
+        if (now - lastSave >= SAVE_INTERVAL) {
+            lastSave = now;
+            save(top);
+        }
+        return s;
+    }
+
+    private boolean warm(IndexSearcher s, SearchParam param) {
+        try {
+            search.warm(s, param);
+            return true;
+        } catch (Exception e) {
+            log.warn(indexPath + " warm query failed: " + param, e);
+            return false;
+        }
+    }
+
+    /**
+     * @return 序列化后的param，不能序列化(如使用自定义比较器排序)时返回null，该查询只计数不预热
+     */
+    private static byte[] serialize(SearchParam param) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(param);
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            log.debug("cannot record warm query: {}", e.toString());
+            return null;
+        }
+    }
+
+    private SearchParam deserialize(byte[] bytes) {
+        try {
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+            try {
+                return (SearchParam) in.readObject();
+            } finally {
+                in.close();
+            }
+        } catch (Exception e) {
+            log.warn(indexPath + " read warm query failed", e);
+            return null;
+        }
+    }
+
+    /**
+     * 读取IndexConfig.setWarming的文件中保存的查询
+     */
+    private void load() {
+        String warmFile = LuceneConfig.getIndexConfig(indexPath).getWarmFile();
+        if (warmFile == null || !new File(warmFile).exists()) {
+            return;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(warmFile)));
+            try {
+                int n = in.readInt();
+                for (int i = 0; i < n; i++) {
+                    long count = in.readLong();
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    SearchParam param = deserialize(bytes);
+                    if (param != null) {
+                        recorded.put(param.toString(), new Recorded(bytes, count));
+                    }
+                }
+            } finally {
+                in.close();
+            }
+            log.info("{} loaded {} warm queries from {}", new Object[] { indexPath, recorded.size(), warmFile });
+        } catch (IOException e) {
+            log.warn(indexPath + " load warm queries from " + warmFile + " failed", e);
+        }
+    }
+
+    private void save(List<Recorded> top) {
+        String warmFile = LuceneConfig.getIndexConfig(indexPath).getWarmFile();
+        if (warmFile == null) {
+            return;
+        }
+        File file = new File(warmFile);
+        File tmp = new File(warmFile + ".tmp");
+        try {
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (parent != null && !parent.exists()) {
+                parent.mkdirs();
+            }
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeInt(top.size());
+                for (Recorded r : top) {
+                    out.writeLong(r.count.get());
+                    out.writeInt(r.bytes.length);
+                    out.write(r.bytes);
+                }
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+                throw new IOException("rename " + tmp + " to " + file + " failed");
+            }
+        } catch (IOException e) {
+            log.warn(indexPath + " save warm queries to " + warmFile + " failed", e);
+        }
+    }
+
+    private static class Recorded {
+        final byte[] bytes;
+        final AtomicLong count;
+
+        Recorded(byte[] bytes, long count) {
+            this.bytes = bytes;
+            this.count = new AtomicLong(count);
+        }
+    }
+}
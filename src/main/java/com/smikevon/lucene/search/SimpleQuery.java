@@ -578,6 +578,39 @@ public class SimpleQuery {
         return this;
     }
 
+    /**
+     * 按属性值折叠结果，每个属性值只返回一行(例如每个spu一行)，get的start、size及getTotalCount均按分组计算，
+     * 分组内的文档可通过SearchResult.getGroups获取
+     * @param fieldName 分组属性名，应为索引但不分词的单值属性
+     * @param docsPerGroup 每个分组返回的最多文档数
+     * @return 链式返回SimpleQuery对象
+     */
+    public SimpleQuery groupBy(String fieldName, int docsPerGroup) {
+        param.setGroup(fieldName, docsPerGroup);
+        return this;
+    }
+
+    /**
+     * 打开查询的性能分析，之后get、getAll返回的SearchResult可通过getProfile获取各阶段耗时、term展开数、
+     * segment数、收集文档数及读取的存储属性字节数
+     * @return 链式返回SimpleQuery对象
+     */
+    public SimpleQuery profile() {
+        param.setProfile(true);
+        return this;
+    }
+
+    /**
+     * 查询前等待searcher看到代号为generation的写入(读己之写)。设置了IndexConfig.setNearRealtime时立即刷新近实时searcher，
+     * 不需要等待commit；否则立即重新打开reader，只能看到已commit的写入
+     * @param generation SimpleIndex.getGeneration()的返回值
+     * @return 链式返回SimpleQuery对象
+     */
+    public SimpleQuery waitFor(long generation) {
+        param.setGeneration(generation);
+        return this;
+    }
+
     /**
      * 获取指定起止范围的结果集
      * @param start 开始位置
@@ -0,0 +1,204 @@
+package com.smikevon.lucene.search;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.smikevon.lucene.LuceneConfig;
+
+/**
+ *
+ * 慢查询日志，阈值见LuceneConfig.setSlowQueryThreshold，文件见LuceneConfig.setSlowQueryLog
+ *
+ * <p>查询线程只把日志放入无锁的环形缓冲区，由一个后台线程写入文件并按大小滚动，查询线程从不等待IO；
+ * 缓冲区满时丢弃该条日志并计数(getDroppedCount)。每行以tab分隔：时间、索引、总耗时(ms)、命中数、
+ * reader版本、各阶段耗时(ms)、规范化的查询条件(SearchParam.toString)</p>
+ *
+ */
+public class SlowQueryLog {
+    private static Logger log = LoggerFactory.getLogger(SlowQueryLog.class);
+    private static final int CAPACITY = 4096; // 2的幂
+    private static final long IDLE_PARK_NANOS = 10000000L;
+
+    private static final AtomicReferenceArray<Entry> ring = new AtomicReferenceArray<Entry>(CAPACITY);
+    private static final AtomicLong tail = new AtomicLong();
+    private static volatile long head;
+    private static final AtomicLong dropped = new AtomicLong();
+    private static final AtomicLong written = new AtomicLong();
+    private static volatile Thread writerThread;
+
+    private SlowQueryLog() {
+    }
+
+    static class Entry {
+        final long time = System.currentTimeMillis();
+        final String text;
+
+        Entry(String text) {
+            this.text = text;
+        }
+    }
+
+    /**
+     * 记录一条慢查询，不阻塞调用线程
+     *
+     * @return 缓冲区已满而丢弃时返回false
+     */
+    public static boolean log(String indexPath, SearchParam param, SearchProfile profile, int hitCount, long elapsedNanos) {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append(indexPath).append('\t').append(ms(elapsedNanos)).append("ms\thits=").append(hitCount)
+                .append("\treaderVersion=").append(profile.getReaderVersion()).append("\trefresh=")
+                .append(ms(profile.getRefreshNanos())).append(",build=").append(ms(profile.getBuildNanos()))
+                .append(",rewrite=").append(ms(profile.getRewriteNanos())).append(",collect=")
+                .append(ms(profile.getCollectNanos())).append(",sort=").append(ms(profile.getSortNanos()))
+                .append(",fetch=").append(ms(profile.getFetchNanos())).append('\t').append(param);
+        return offer(new Entry(sb.toString()));
+    }
+
+    private static String ms(long nanos) {
+        return String.valueOf(nanos / 1000 / 1000.0);
+    }
+
+    private static boolean offer(Entry entry) {
+        ensureWriter();
+        while (true) {
+            long seq = tail.get();
+            if (seq - head >= CAPACITY) {
+                dropped.incrementAndGet();
+                return false;
+            }
+            if (tail.compareAndSet(seq, seq + 1)) {
+                ring.lazySet((int) (seq & (CAPACITY - 1)), entry);
+                LockSupport.unpark(writerThread);
+                return true;
+            }
+        }
+    }
+
+    private static void ensureWriter() {
+        if (writerThread == null) {
+            synchronized (SlowQueryLog.class) {
+                if (writerThread == null) {
+                    Thread t = new WriterThread();
+                    t.setDaemon(true);
+                    t.start();
+                    writerThread = t;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 因缓冲区满而丢弃的日志数
+     */
+    public static long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * @return 已写入文件的日志数
+     */
+    public static long getWrittenCount() {
+        return written.get();
+    }
+
+    static class WriterThread extends Thread {
+        private File file;
+        private Writer out;
+        private long size;
+
+        WriterThread() {
+            super("lucene-slow-query-log");
+        }
+
+        @Override
+        public void run() {
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+            while (true) {
+                try {
+                    long h = head;
+                    if (h == tail.get()) {
+                        if (out != null)
+                            out.flush();
+                        LockSupport.parkNanos(IDLE_PARK_NANOS);
+                        continue;
+                    }
+                    int idx = (int) (h & (CAPACITY - 1));
+                    Entry entry = ring.get(idx);
+                    if (entry == null) { // 已占位但尚未写入
+                        Thread.yield();
+                        continue;
+                    }
+                    ring.lazySet(idx, null);
+                    head = h + 1;
+                    write(format.format(new Date(entry.time)) + '\t' + entry.text + '\n');
+                } catch (Throwable e) {
+                    log.error("write slow query log failed", e);
+                    close();
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            }
+        }
+
+        private void write(String line) throws IOException {
+            if (out == null) {
+                open();
+            }
+            out.write(line);
+            size += line.length() * 3; // 按UTF-8最坏情况估算
+            written.incrementAndGet();
+            if (size >= LuceneConfig.getSlowQueryLogMaxMB() * 1024L * 1024L) {
+                close();
+                roll();
+            }
+        }
+
+        private void open() throws IOException {
+            file = new File(LuceneConfig.getSlowQueryLogFile());
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (parent != null && !parent.exists()) {
+                parent.mkdirs();
+            }
+            size = file.length();
+            out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+        }
+
+        private void roll() {
+            int maxFiles = LuceneConfig.getSlowQueryLogMaxFiles();
+            new File(file.getPath() + "." + maxFiles).delete();
+            for (int i = maxFiles - 1; i >= 1; i--) {
+                File f = new File(file.getPath() + "." + i);
+                if (f.exists()) {
+                    f.renameTo(new File(file.getPath() + "." + (i + 1)));
+                }
+            }
+            if (maxFiles > 0) {
+                file.renameTo(new File(file.getPath() + ".1"));
+            } else {
+                file.delete();
+            }
+        }
+
+        private void close() {
+            try {
+                if (out != null)
+                    out.close();
+            } catch (IOException e) {
+                log.warn(e.getMessage(), e);
+            } finally {
+                out = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.smikevon.lucene.index;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * 租约过期的锁被接管，按时续约的持有者不被接管
+ *
+ */
+public class LeaseLockTest {
+    private static final long LEASE = 300;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static void writeLease(File lockFile, String owner, long expires) throws IOException {
+        FileOutputStream out = new FileOutputStream(lockFile);
+        try {
+            out.write((owner + "\n" + expires + "\n").getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    @Test
+    public void takesOverExpiredLease() throws IOException {
+        File dir = tmp.newFolder("expired");
+        writeLease(new File(dir, "write.lock"), "dead/1", System.currentTimeMillis() - 2 * LEASE);
+
+        LeaseLock lock = new LeaseLock(dir, "write.lock", LEASE);
+        assertTrue(lock.obtain());
+        lock.release();
+        assertFalse(new File(dir, "write.lock").exists());
+    }
+
+    @Test
+    public void takesOverLeaseNotRenewedForALease() throws Exception {
+        File dir = tmp.newFolder("stale");
+        // 记录的到期时间在将来(如持有者的时钟较快)，但内容不再变化
+        writeLease(new File(dir, "write.lock"), "dead/2", System.currentTimeMillis() + 60000);
+
+        LeaseLock lock = new LeaseLock(dir, "write.lock", LEASE);
+        assertFalse(lock.obtain());
+        Thread.sleep(LEASE + 100);
+        assertTrue(lock.obtain());
+        lock.release();
+    }
+
+    @Test
+    public void liveHolderKeepsLease() throws Exception {
+        File dir = tmp.newFolder("live");
+        LeaseLock holder = new LeaseLock(dir, "write.lock", LEASE);
+        assertTrue(holder.obtain());
+
+        LeaseLock other = new LeaseLock(dir, "write.lock", LEASE);
+        long deadline = System.currentTimeMillis() + 4 * LEASE;
+        while (System.currentTimeMillis() < deadline) {
+            assertFalse(other.obtain());
+            Thread.sleep(LEASE / 10);
+        }
+        holder.release();
+        assertTrue(other.obtain());
+        other.release();
+    }
+}
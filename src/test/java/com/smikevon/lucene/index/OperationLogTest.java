@@ -0,0 +1,149 @@
+package com.smikevon.lucene.index;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.smikevon.lucene.IndexConfig;
+
+/**
+ *
+ * 操作日志的重放及分段删除，以rollback代替进程崩溃：未commit的写入丢弃，日志文件保留
+ *
+ */
+public class OperationLogTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File indexDir;
+    private String indexPath;
+
+    private IndexWriter openWriter() throws IOException {
+        if (indexDir == null) {
+            indexDir = tmp.newFolder("index");
+            indexPath = indexDir.getPath();
+        }
+        return new IndexWriter(FSDirectory.open(indexDir), AbstractLuceneIndex.newIndexWriterConfig(indexPath));
+    }
+
+    private OperationLog open(IndexWriter writer, int segmentMB) throws IOException {
+        return OperationLog.open(indexPath, indexDir, writer, new IndexConfig().setOperationLog(true, 0, segmentMB));
+    }
+
+    private static void add(OperationLog oplog, IndexWriter writer, String id) throws IOException {
+        Document doc = new Document();
+        doc.add(new StringField("id", id, Store.YES));
+        long seq = oplog.begin(OperationLog.Op.add(doc));
+        writer.addDocument(doc);
+        oplog.end(seq);
+    }
+
+    private File[] segments() {
+        File dir = new File(indexDir.getParentFile(), indexDir.getName() + OperationLog.SUFFIX);
+        return dir.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".log");
+            }
+        });
+    }
+
+    @Test
+    public void replayIgnoresTornTailRecord() throws IOException {
+        IndexWriter writer = openWriter();
+        OperationLog oplog = open(writer, 64);
+        for (int i = 0; i < 3; i++) {
+            add(oplog, writer, String.valueOf(i));
+        }
+        writer.rollback(); // 崩溃：3条记录均未commit
+
+        File[] segments = segments();
+        assertEquals(1, segments.length);
+        RandomAccessFile file = new RandomAccessFile(segments[0], "rw");
+        try {
+            file.seek(file.length());
+            file.writeInt(100); // 只写了一半的记录：长度、CRC及部分内容
+            file.writeInt(0x12345678);
+            file.write(new byte[10]);
+        } finally {
+            file.close();
+        }
+
+        writer = openWriter();
+        open(writer, 64);
+        assertEquals(3, writer.numDocs());
+        assertEquals("3", writer.getCommitData().get(OperationLog.SEQ));
+        writer.close();
+    }
+
+    @Test
+    public void replaySkipsAbortedRecord() throws IOException {
+        IndexWriter writer = openWriter();
+        OperationLog oplog = open(writer, 64);
+        add(oplog, writer, "1");
+        Document doc = new Document();
+        doc.add(new StringField("id", "2", Store.YES));
+        long seq = oplog.begin(OperationLog.Op.add(doc));
+        oplog.abort(seq); // 写入writer失败
+        add(oplog, writer, "3");
+        writer.rollback();
+
+        writer = openWriter();
+        open(writer, 64);
+        assertEquals(2, writer.numDocs());
+        writer.close();
+    }
+
+    @Test
+    public void abortSurvivesRestartWithoutReplay() throws IOException {
+        IndexWriter writer = openWriter();
+        OperationLog oplog = open(writer, 0); // 撤销记录落在新开始的分段中
+        Document doc = new Document();
+        doc.add(new StringField("id", "1", Store.YES));
+        oplog.abort(oplog.begin(OperationLog.Op.add(doc)));
+        writer.rollback();
+
+        writer = openWriter();
+        open(writer, 0); // 没有需要重放的记录，不commit
+        assertEquals(0, writer.numDocs());
+        writer.rollback(); // 再次崩溃
+
+        writer = openWriter();
+        open(writer, 0);
+        assertEquals(0, writer.numDocs());
+        writer.close();
+    }
+
+    @Test
+    public void commitTrimsCoveredSegments() throws IOException {
+        IndexWriter writer = openWriter();
+        OperationLog oplog = open(writer, 0); // 每条记录之后都开始新的分段
+        for (int i = 0; i < 5; i++) {
+            add(oplog, writer, String.valueOf(i));
+        }
+        assertEquals(6, segments().length);
+
+        oplog.commit(writer);
+        File[] segments = segments();
+        assertEquals(1, segments.length); // 只保留当前分段
+        assertEquals(String.format("%020d.log", 6), segments[0].getName());
+
+        add(oplog, writer, "5");
+        writer.rollback();
+        writer = openWriter();
+        open(writer, 0);
+        assertEquals(6, writer.numDocs()); // 只重放最后一次commit之后的记录
+        writer.close();
+    }
+}
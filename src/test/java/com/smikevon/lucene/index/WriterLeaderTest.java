@@ -0,0 +1,144 @@
+package com.smikevon.lucene.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.smikevon.lucene.LuceneConfig;
+
+/**
+ *
+ * leader崩溃后(写锁的租约不再续约)，本进程接管写锁并处理.spool中遗留及新转发的记录
+ *
+ */
+public class WriterLeaderTest {
+    private static final long LEASE = 600;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static Document doc(String id) {
+        Document doc = new Document();
+        doc.add(new StringField("id", id, Store.YES));
+        return doc;
+    }
+
+    private static void write(File file, OperationLog.Op op) throws IOException {
+        ByteBuffer record = op.encode();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(record.array(), record.arrayOffset(), record.remaining());
+        } finally {
+            out.close();
+        }
+    }
+
+    @Test
+    public void drainsSpoolAfterLeaderDies() throws Exception {
+        File indexDir = tmp.newFolder("index");
+        String indexPath = indexDir.getPath();
+        LuceneConfig.getIndexConfig(indexPath).notCacheWriter(LEASE, 50).setWriterLeader(50);
+
+        // 崩溃的leader：已提交committed.op但未删除，写锁留在目录中不再续约
+        IndexWriter writer = new IndexWriter(FSDirectory.open(indexDir),
+                AbstractLuceneIndex.newIndexWriterConfig(indexPath));
+        Document first = doc("first");
+        first.add(new NumericDocValuesField("dv", 1));
+        writer.addDocument(first);
+        Map<String, String> data = new HashMap<String, String>();
+        data.put(WriterLeader.APPLIED, "0000000000000-committed.op");
+        writer.setCommitData(data);
+        writer.commit();
+        writer.close();
+        File spool = new File(indexPath + ".spool");
+        assertTrue(spool.mkdirs());
+        write(new File(spool, "0000000000000-committed.op"), OperationLog.Op.add(doc("committed")));
+        FileOutputStream corrupt = new FileOutputStream(new File(spool, "0000000000001-corrupt.op"));
+        corrupt.write(new byte[] { 0, 0, 0, 9, 1, 2 });
+        corrupt.close();
+        FileOutputStream lease = new FileOutputStream(new File(indexDir, "write.lock"));
+        lease.write(("dead/1\n" + (System.currentTimeMillis() + LEASE) + "\n").getBytes("UTF-8"));
+        lease.close();
+
+        WriterLeader leader = WriterLeader.get(indexPath);
+        assertEquals(null, leader.getWriter());
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int i = 0; i < 3; i++) {
+            futures.add(leader.forward(OperationLog.Op.add(doc("a" + i))));
+        }
+        for (int i = 1; i <= 5; i++) { // 同一key的更新按转发的顺序执行
+            Document d = doc("k");
+            d.add(new StringField("v", "v" + i, Store.YES));
+            futures.add(leader.forward(OperationLog.Op.update("id", "k", d)));
+        }
+        Document bad = doc("bad");
+        bad.add(new SortedDocValuesField("dv", new BytesRef("x"))); // 与已有的DocValues类型冲突
+        Future<Void> badFuture = leader.forward(OperationLog.Op.add(bad));
+        futures.add(leader.forward(OperationLog.Op.add(doc("last"))));
+
+        for (Future<Void> f : futures) {
+            f.get(30, TimeUnit.SECONDS);
+        }
+        try {
+            badFuture.get(30, TimeUnit.SECONDS);
+            fail("conflicting document should be moved aside");
+        } catch (ExecutionException e) {
+            // expected
+        }
+        assertNotNull(leader.getWriter());
+
+        DirectoryReader reader = DirectoryReader.open(FSDirectory.open(indexDir));
+        try {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            for (String id : new String[] { "first", "a0", "a1", "a2", "k", "last" }) {
+                assertEquals(id, 1, searcher.search(new TermQuery(new Term("id", id)), 1).totalHits);
+            }
+            assertEquals(0, searcher.search(new TermQuery(new Term("id", "committed")), 1).totalHits);
+            assertEquals(0, searcher.search(new TermQuery(new Term("id", "bad")), 1).totalHits);
+            TopDocs k = searcher.search(new TermQuery(new Term("id", "k")), 1);
+            assertEquals("v5", searcher.doc(k.scoreDocs[0].doc).get("v"));
+            assertEquals(6, reader.numDocs());
+        } finally {
+            reader.close();
+        }
+
+        String[] left = spool.list();
+        Arrays.sort(left);
+        assertEquals(2, left.length);
+        assertTrue(left[0], left[0].endsWith("-corrupt.bad"));
+        assertTrue(left[1], left[1].endsWith(".bad"));
+        assertFalse(new File(spool, "0000000000000-committed.op").exists());
+    }
+}